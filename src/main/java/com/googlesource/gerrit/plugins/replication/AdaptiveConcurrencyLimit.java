@@ -0,0 +1,114 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.function.IntConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Number of concurrent pushes to a destination, adjusted by additive increase and multiplicative
+ * decrease.
+ *
+ * <p>The limit grows by one each time as many pushes as allowed complete within the latency
+ * threshold. A failed push, or one slower than the threshold, halves the limit. The pushes which
+ * were already running when the limit was decreased do not decrease it again, as they were started
+ * under the previous limit.
+ */
+class AdaptiveConcurrencyLimit {
+  static final double BACKOFF_RATIO = 0.5;
+
+  private final int min;
+  private final int max;
+  private final long latencyThresholdMillis;
+  private final IntConsumer onChange;
+  private final LongSupplier nanoTime;
+  private int limit;
+  private int successes;
+  private long lastDecrease;
+
+  AdaptiveConcurrencyLimit(
+      int initial, int min, int max, long latencyThresholdMillis, IntConsumer onChange) {
+    this(initial, min, max, latencyThresholdMillis, onChange, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  AdaptiveConcurrencyLimit(
+      int initial,
+      int min,
+      int max,
+      long latencyThresholdMillis,
+      IntConsumer onChange,
+      LongSupplier nanoTime) {
+    this.min = Math.max(1, min);
+    this.max = Math.max(this.min, max);
+    this.latencyThresholdMillis = latencyThresholdMillis;
+    this.onChange = onChange;
+    this.nanoTime = nanoTime;
+    limit = Math.min(this.max, Math.max(this.min, initial));
+    lastDecrease = nanoTime.getAsLong();
+  }
+
+  synchronized int get() {
+    return limit;
+  }
+
+  /**
+   * Records a completed push.
+   *
+   * @param startedAt when the push started, in nanoseconds as returned by {@link
+   *     System#nanoTime()}.
+   * @param elapsedMillis duration of the push.
+   */
+  void onSuccess(long startedAt, long elapsedMillis) {
+    if (elapsedMillis > latencyThresholdMillis) {
+      onFailure(startedAt);
+      return;
+    }
+    update(
+        () -> {
+          if (++successes >= limit) {
+            limit = Math.min(max, limit + 1);
+            successes = 0;
+          }
+        });
+  }
+
+  /**
+   * Records a push which failed, as the destination is overloaded or unreachable.
+   *
+   * @param startedAt when the push started, in nanoseconds as returned by {@link
+   *     System#nanoTime()}.
+   */
+  void onFailure(long startedAt) {
+    update(
+        () -> {
+          if (startedAt - lastDecrease >= 0) {
+            limit = Math.max(min, (int) (limit * BACKOFF_RATIO));
+            successes = 0;
+            lastDecrease = nanoTime.getAsLong();
+          }
+        });
+  }
+
+  /** Applies the change, notifying the new limit while locked so that changes apply in order. */
+  private synchronized void update(Runnable change) {
+    int previous = limit;
+    change.run();
+    if (limit != previous) {
+      onChange.accept(limit);
+    }
+  }
+}
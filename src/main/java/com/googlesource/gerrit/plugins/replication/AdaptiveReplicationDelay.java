@@ -0,0 +1,92 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.gerrit.entities.Project;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Chooses the delay of the pushes of each project between a minimum and a maximum, from the rate of
+ * its ref updates.
+ *
+ * <p>The rate is an exponentially weighted moving average over {@link #RATE_WINDOW_MS}: the number
+ * of recent updates, each decayed by its age. The delay grows with the probability that another
+ * update of the project arrives within the maximum delay, so that a busy project waits to batch its
+ * refs into fewer pushes while a quiet one is pushed after the minimum delay.
+ */
+class AdaptiveReplicationDelay {
+  static final long RATE_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
+  /** The decayed number of updates of a project, as of the last one. */
+  private static class Rate {
+    final double updates;
+    final long last;
+
+    Rate(double updates, long last) {
+      this.updates = updates;
+      this.last = last;
+    }
+
+    double decayed(long now) {
+      return updates * Math.exp(-Math.max(0, now - last) / (double) RATE_WINDOW_MS);
+    }
+  }
+
+  private final long minMillis;
+  private final long maxMillis;
+  private final LongSupplier clock;
+  private final Cache<Project.NameKey, Rate> rates;
+
+  AdaptiveReplicationDelay(long minMillis, long maxMillis) {
+    this(minMillis, maxMillis, System::currentTimeMillis);
+  }
+
+  @VisibleForTesting
+  AdaptiveReplicationDelay(long minMillis, long maxMillis, LongSupplier clock) {
+    this.minMillis = minMillis;
+    this.maxMillis = Math.max(minMillis, maxMillis);
+    this.clock = clock;
+    // A rate decayed over ten windows no longer changes the delay
+    rates =
+        CacheBuilder.newBuilder().expireAfterAccess(Duration.ofMillis(10 * RATE_WINDOW_MS)).build();
+  }
+
+  /** Counts an update of the project, which makes its next pushes more delayed. */
+  void recordUpdate(Project.NameKey project) {
+    long now = clock.getAsLong();
+    rates
+        .asMap()
+        .compute(project, (p, rate) -> new Rate((rate != null ? rate.decayed(now) : 0) + 1, now));
+  }
+
+  /**
+   * The delay of a push of the project scheduled now, in milliseconds. The update which triggers
+   * the push is expected to be recorded after, so that a first update is pushed after the minimum.
+   */
+  long getDelayMillis(Project.NameKey project) {
+    Rate rate = rates.getIfPresent(project);
+    if (rate == null) {
+      return minMillis;
+    }
+    double updatesPerMillis = rate.decayed(clock.getAsLong()) / RATE_WINDOW_MS;
+    double anotherUpdateProbability = 1 - Math.exp(-updatesPerMillis * maxMillis);
+    return minMillis + Math.round((maxMillis - minMillis) * anotherUpdateProbability);
+  }
+}
@@ -145,6 +145,16 @@ public class AutoReloadConfigDecorator implements ReplicationConfig, LifecycleLi
     return currentConfig.getAutoRepairConcurrencyLimit();
   }
 
+  @Override
+  public int getMaxConcurrentPushes() {
+    return currentConfig.getMaxConcurrentPushes();
+  }
+
+  @Override
+  public int getMaxConnectionsPerHost() {
+    return currentConfig.getMaxConnectionsPerHost();
+  }
+
   @Override
   public Config getConfig() {
     return currentConfig.getConfig();
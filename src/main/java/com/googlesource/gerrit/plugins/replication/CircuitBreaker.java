@@ -0,0 +1,146 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.googlesource.gerrit.plugins.replication.ReplicationQueue.repLog;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.gerrit.common.Nullable;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Stops the pushes to a remote server after consecutive transport failures, until a probe push
+ * reaches it again.
+ *
+ * <p>The circuit of a server opens when as many pushes as the threshold fail in a row with a
+ * transport error. While open, the pushes to the server are held without connecting to it, except
+ * for one probe push allowed after each probe interval. The circuit closes once the probe completes
+ * without a transport error, and opens again for another interval otherwise.
+ */
+class CircuitBreaker {
+  /** The state of the pushes to a server, absent while the pushes succeed. */
+  private static class Circuit {
+    int failures;
+    boolean open;
+    long openedAt;
+    @Nullable Integer probeId;
+  }
+
+  private final String name;
+  private final int threshold;
+  private final long probeIntervalNanos;
+  private final LongSupplier nanoTime;
+  private final Map<String, Circuit> circuits = new HashMap<>();
+
+  CircuitBreaker(String name, int threshold, long probeInterval, TimeUnit unit) {
+    this(name, threshold, probeInterval, unit, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  CircuitBreaker(
+      String name, int threshold, long probeInterval, TimeUnit unit, LongSupplier nanoTime) {
+    this.name = name;
+    this.threshold = Math.max(1, threshold);
+    this.probeIntervalNanos = unit.toNanos(probeInterval);
+    this.nanoTime = nanoTime;
+  }
+
+  /**
+   * The server of the URI, whose pushes share a circuit, with the default port of its scheme when
+   * none is given.
+   */
+  static String serverOf(URIish uri) {
+    return Strings.nullToEmpty(uri.getHost()).toLowerCase(Locale.ROOT)
+        + ":"
+        + HostConnectionLimit.portOf(uri);
+  }
+
+  /**
+   * Whether a push can connect to the server. While the circuit is open, only the first push after
+   * the probe interval is allowed, as the probe.
+   */
+  synchronized boolean tryAcquire(String server, int pushId) {
+    Circuit c = circuits.get(server);
+    if (c == null || !c.open) {
+      return true;
+    }
+    if (c.probeId == null && nanoTime.getAsLong() - c.openedAt >= probeIntervalNanos) {
+      c.probeId = pushId;
+      repLog.atInfo().log("%s: probing %s with push [%s]", name, server, pushId);
+      return true;
+    }
+    return false;
+  }
+
+  /** Milliseconds until a probe push to the server is allowed, 0 when pushes are allowed. */
+  synchronized long getProbeDelayMillis(String server) {
+    Circuit c = circuits.get(server);
+    if (c == null || !c.open) {
+      return 0;
+    }
+    long elapsed = nanoTime.getAsLong() - c.openedAt;
+    return TimeUnit.NANOSECONDS.toMillis(Math.max(0, probeIntervalNanos - elapsed));
+  }
+
+  synchronized boolean isOpen(String server) {
+    Circuit c = circuits.get(server);
+    return c != null && c.open;
+  }
+
+  /** Records a push to the server which succeeded. */
+  synchronized void onSuccess(String server) {
+    Circuit c = circuits.get(server);
+    if (c != null && !c.open) {
+      circuits.remove(server);
+    }
+  }
+
+  /** Records a push to the server which failed with a transport error. */
+  synchronized void onFailure(String server, int pushId) {
+    Circuit c = circuits.computeIfAbsent(server, s -> new Circuit());
+    c.failures++;
+    if (c.open) {
+      if (c.probeId != null && c.probeId == pushId) {
+        c.probeId = null;
+        c.openedAt = nanoTime.getAsLong();
+        repLog.atInfo().log("%s: probe of %s failed, pushes still held", name, server);
+      }
+    } else if (c.failures >= threshold) {
+      c.open = true;
+      c.openedAt = nanoTime.getAsLong();
+      repLog.atWarning().log(
+          "%s: holding pushes to %s after %d consecutive transport failures",
+          name, server, c.failures);
+    }
+  }
+
+  /**
+   * Records a push to the server which finished. A probe which finished without a transport error
+   * reached the server, which closes the circuit.
+   */
+  synchronized void onFinished(String server, int pushId) {
+    Circuit c = circuits.get(server);
+    if (c != null && c.open && c.probeId != null && c.probeId == pushId) {
+      circuits.remove(server);
+      repLog.atInfo().log("%s: %s reached again, resuming pushes", name, server);
+    }
+  }
+}
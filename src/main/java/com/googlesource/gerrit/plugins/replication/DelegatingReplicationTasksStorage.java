@@ -0,0 +1,163 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.google.gerrit.metrics.Timer1;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationTaskStore;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ReplicationTasksStorage} which keeps the tasks in the {@link ReplicationTaskStore} bound
+ * by another plugin, or in an {@link InMemoryReplicationTaskStore} while none is bound, instead of
+ * one file per task.
+ *
+ * <p>The store is looked up on each operation. The tasks kept by the in-memory store before another
+ * store is bound are not moved to it.
+ *
+ * <p>The tasks left in the file based layout under <replication_data>/ref-updates are neither read
+ * nor removed, they are replayed once the file based storage is used again.
+ */
+@Singleton
+public class DelegatingReplicationTasksStorage extends ReplicationTasksStorage {
+  private final ReplicationTaskStore fallback;
+  @Nullable private volatile DynamicItem<ReplicationTaskStore> bound;
+
+  @Inject
+  DelegatingReplicationTasksStorage(
+      ReplicationConfig config, InMemoryReplicationTaskStore fallback) {
+    this(config.getEventsDirectory().resolve("ref-updates"), fallback);
+  }
+
+  @VisibleForTesting
+  DelegatingReplicationTasksStorage(Path refUpdates, ReplicationTaskStore fallback) {
+    super(refUpdates, Durability.BUFFERED, TaskEncoding.JSON);
+    this.fallback = fallback;
+  }
+
+  /** Sets the item through which another plugin binds its store, absent without the API module. */
+  @Inject(optional = true)
+  void setBoundStore(DynamicItem<ReplicationTaskStore> bound) {
+    this.bound = bound;
+  }
+
+  private ReplicationTaskStore store() {
+    DynamicItem<ReplicationTaskStore> item = bound;
+    ReplicationTaskStore store = item != null ? item.get() : null;
+    return store != null ? store : fallback;
+  }
+
+  @Override
+  protected Set<ReplicateRefUpdate> commit(List<Transition> transitions) {
+    ReplicationTaskStore s = store();
+    Set<ReplicateRefUpdate> applied = new HashSet<>();
+    for (Transition t : transitions) {
+      boolean done;
+      try (Timer1.Context<String> ctx = startTimer(t.op().name().toLowerCase(Locale.US))) {
+        switch (t.op()) {
+          case CREATE:
+            done = s.create(t.update());
+            break;
+          case START:
+            done = s.start(t.update());
+            break;
+          case RESET:
+            done = s.reset(t.update());
+            break;
+          case FINISH:
+            done = s.finish(t.update());
+            break;
+          default:
+            throw new IllegalStateException("Unknown transition " + t.op());
+        }
+      }
+      if (done) {
+        applied.add(t.update());
+      }
+    }
+    return applied;
+  }
+
+  /** The store does not record when the tasks were created, so their age is reported as zero. */
+  @Override
+  public Map<String, RemoteTaskStats> getTaskStats() {
+    ReplicationTaskStore s = store();
+    TaskStatsCollector stats = new TaskStatsCollector();
+    long now = System.currentTimeMillis();
+    try (Stream<? extends ReplicationTaskStore.Task> waiting = s.streamWaiting()) {
+      waiting.forEach(t -> stats.addWaiting(t.remote(), now));
+    }
+    try (Stream<? extends ReplicationTaskStore.Task> running = s.streamRunning()) {
+      running.forEach(t -> stats.addRunning(t.remote()));
+    }
+    return stats.build();
+  }
+
+  @Override
+  public ReplicationTasksScanner.Result scan(long buildingMaxAgeMillis) {
+    return ReplicationTasksScanner.Result.create(0, 0, 0);
+  }
+
+  @Override
+  public void recoverAll(Set<String> remotes) {
+    store().recover(remotes);
+  }
+
+  @Override
+  public boolean isWaiting(UriUpdates uriUpdates) {
+    ReplicationTaskStore s = store();
+    return uriUpdates.getReplicateRefUpdates().stream().anyMatch(s::isWaiting);
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamWaiting() {
+    return store().streamWaiting().map(DelegatingReplicationTasksStorage::toUpdate);
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamWaiting(Set<String> remotes) {
+    return streamWaiting().filter(u -> remotes.contains(u.remote()));
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamRunning() {
+    return store().streamRunning().map(DelegatingReplicationTasksStorage::toUpdate);
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamRunning(Set<String> remotes) {
+    return streamRunning().filter(u -> remotes.contains(u.remote()));
+  }
+
+  private static ReplicateRefUpdate toUpdate(ReplicationTaskStore.Task task) {
+    if (task instanceof ReplicateRefUpdate) {
+      return (ReplicateRefUpdate) task;
+    }
+    return ReplicateRefUpdate.create(
+        task.project(), ImmutableSet.copyOf(task.refs()), task.uri(), task.remote(), task.key());
+  }
+}
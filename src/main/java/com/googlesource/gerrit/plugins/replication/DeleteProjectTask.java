@@ -36,6 +36,7 @@ public class DeleteProjectTask implements Runnable {
 
   private final RemoteConfig config;
   private final DynamicItem<AdminApiFactory> adminApiFactory;
+  private final HostConnectionLimit hostLimit;
   private final int id;
   private final URIish replicateURI;
   private final Project.NameKey project;
@@ -45,12 +46,14 @@ public class DeleteProjectTask implements Runnable {
   DeleteProjectTask(
       RemoteConfig config,
       DynamicItem<AdminApiFactory> adminApiFactory,
+      HostConnectionLimit hostLimit,
       IdGenerator ig,
       @Assisted ProjectDeletionState state,
       @Assisted URIish replicateURI,
       @Assisted Project.NameKey project) {
     this.config = config;
     this.adminApiFactory = adminApiFactory;
+    this.hostLimit = hostLimit;
     this.id = ig.next();
     this.replicateURI = replicateURI;
     this.project = project;
@@ -59,6 +62,18 @@ public class DeleteProjectTask implements Runnable {
 
   @Override
   public void run() {
+    try {
+      hostLimit.runConnected(replicateURI, this::deleteProject);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      repLog.atWarning().log(
+          "Interrupted while waiting to delete project %s on remote site %s.",
+          project, replicateURI);
+      state.setFailed(replicateURI);
+    }
+  }
+
+  private void deleteProject() {
     Optional<AdminApi> adminApi = adminApiFactory.get().create(replicateURI, config.getName());
     if (adminApi.isPresent()) {
       if (adminApi.get().deleteProject(project)) {
@@ -20,6 +20,7 @@ import static org.eclipse.jgit.transport.RemoteRefUpdate.Status.NON_EXISTING;
 import static org.eclipse.jgit.transport.RemoteRefUpdate.Status.REJECTED_OTHER_REASON;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.MoreObjects;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -46,6 +47,7 @@ import com.google.gerrit.server.account.ListGroupMembership;
 import com.google.gerrit.server.git.GitRepositoryManager;
 import com.google.gerrit.server.git.PerThreadRequestScope;
 import com.google.gerrit.server.git.WorkQueue;
+import com.google.gerrit.server.ioutil.HexFormat;
 import com.google.gerrit.server.permissions.PermissionBackend;
 import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gerrit.server.permissions.ProjectPermission;
@@ -74,15 +76,18 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -97,7 +102,7 @@ import org.eclipse.jgit.transport.URIish;
 
 public class Destination {
   private static final NamedFluentLogger repLog = ReplicationQueue.repLog;
-  private static final int MAX_STRIPES = 16;
+  private static final int STATE_LOCK_STRIPES = 1 << 12;
 
   private static final String PROJECT_NOT_AVAILABLE = "source project %s not available";
 
@@ -107,25 +112,17 @@ public class Destination {
     Destination create(DestinationConfiguration config);
   }
 
+  /**
+   * Serializes the state transitions of the pushes to the same URI, which update the pending and
+   * in-flight pushes together with the task storage. The locks are allocated on demand and released
+   * once unused, and there are enough of them for the pushes to different URIs to almost never
+   * contend, whatever the number of projects of the remote.
+   */
   private static class StateLock {
-    private final Striped<ReadWriteLock> stateLock;
+    private final Striped<Lock> stateLock = Striped.lazyWeakLock(STATE_LOCK_STRIPES);
 
-    StateLock(int numStripes) {
-      stateLock = Striped.readWriteLock(numStripes);
-    }
-
-    <V> V withWriteLock(URIish uri, Supplier<V> task) {
-      Lock lock = stateLock.get(uri).writeLock();
-      lock.lock();
-      try {
-        return task.get();
-      } finally {
-        lock.unlock();
-      }
-    }
-
-    <V> V withReadLock(URIish uri, Supplier<V> task) {
-      Lock lock = stateLock.get(uri).readLock();
+    <V> V withLock(URIish uri, Supplier<V> task) {
+      Lock lock = stateLock.get(uri);
       lock.lock();
       try {
         return task.get();
@@ -137,6 +134,7 @@ public class Destination {
 
   private static class RescheduleStatus {
     boolean isRescheduled;
+    boolean isRequeued;
     boolean isFailed;
     RemoteRefUpdate.Status failedStatus;
     URIish failoverTo;
@@ -147,6 +145,9 @@ public class Destination {
   // writes are covered by the stateLock, but some reads are still
   // allowed without the lock
   private final Queue queue;
+  // pushes which collided with the in-flight push to their URI, started once it finishes; writes
+  // are covered by the stateLock
+  private final ConcurrentMap<URIish, PushOne> successors = new ConcurrentHashMap<>();
   private final PushOne.Factory opFactory;
   private final DeleteProjectTask.Factory deleteProjectFactory;
   private final UpdateHeadTask.Factory updateHeadFactory;
@@ -155,7 +156,20 @@ public class Destination {
   private final Provider<CurrentUser> userProvider;
   private final ProjectCache projectCache;
   private volatile ScheduledExecutorService pool;
+  @Nullable private volatile ScheduledExecutorService priorityPool;
+  @Nullable private volatile TimingWheel delayedPushes;
+  @Nullable private volatile FairPushQueue fairPushes;
+  @Nullable private final AdaptiveReplicationDelay adaptiveDelay;
+  @Nullable private volatile AdaptiveConcurrencyLimit concurrencyLimit;
+  private final RetryBackoff retryBackoff;
+  @Nullable private final CircuitBreaker circuitBreaker;
+  @Nullable private final TokenBucket pushStarts;
+  @Nullable private final TokenBucket transferredBytes;
   private final PerThreadRequestScope.Scoper threadScoper;
+  @Nullable private final ReplicationMetrics metrics;
+  @Nullable private final PushAdmission admission;
+  @Nullable private volatile PushAdmission.Budget budget;
+  @Nullable private final HostConnectionLimit hostLimit;
   private final DestinationConfiguration config;
   private final EventDispatcher eventDispatcher;
   private final Provider<ReplicationTasksStorage> replicationTasksStorage;
@@ -164,7 +178,11 @@ public class Destination {
   protected enum RetryReason {
     TRANSPORT_ERROR,
     COLLISION,
-    REPOSITORY_MISSING;
+    REPOSITORY_MISSING,
+    CIRCUIT_OPEN,
+    RATE_LIMITED,
+    ADMISSION,
+    HOST_BUSY;
   }
 
   public static class Queue {
@@ -203,10 +221,35 @@ public class Destination {
     this.credentialsFactory = credentialsFactory;
     config = cfg;
     urlDistributor = cfg.getUrlDistributionStrategy().newInstance();
-
-    ImmutableList<String> projects = cfg.getProjects();
-    int numStripes = projects.isEmpty() ? MAX_STRIPES : Math.min(projects.size(), MAX_STRIPES);
-    stateLock = new StateLock(numStripes);
+    retryBackoff =
+        new RetryBackoff(
+            TimeUnit.MINUTES.toMillis(cfg.getRetryDelay()),
+            TimeUnit.MINUTES.toMillis(cfg.getMaxRetryDelay()));
+    circuitBreaker =
+        cfg.getCircuitBreakerThreshold() > 0
+            ? new CircuitBreaker(
+                cfg.getRemoteConfig().getName(),
+                cfg.getCircuitBreakerThreshold(),
+                cfg.getCircuitBreakerProbeIntervalMillis(),
+                TimeUnit.MILLISECONDS)
+            : null;
+    pushStarts =
+        cfg.getMaxPushRate() > 0
+            ? new TokenBucket(
+                cfg.getMaxPushRate(), TimeUnit.MINUTES, Math.max(1, cfg.getPoolThreads()))
+            : null;
+    transferredBytes =
+        cfg.getMaxTransferRate() > 0
+            ? new TokenBucket(cfg.getMaxTransferRate(), TimeUnit.SECONDS, cfg.getMaxTransferRate())
+            : null;
+    adaptiveDelay =
+        cfg.getMaxDelay() > 0
+            ? new AdaptiveReplicationDelay(
+                TimeUnit.SECONDS.toMillis(cfg.getMinDelay()),
+                TimeUnit.SECONDS.toMillis(cfg.getMaxDelay()))
+            : null;
+
+    stateLock = new StateLock();
 
     CurrentUser remoteUser;
     if (!cfg.getAuthGroupNames().isEmpty()) {
@@ -264,6 +307,9 @@ public class Destination {
     deleteProjectFactory = child.getInstance(DeleteProjectTask.Factory.class);
     updateHeadFactory = child.getInstance(UpdateHeadTask.Factory.class);
     threadScoper = child.getInstance(PerThreadRequestScope.Scoper.class);
+    metrics = child.getInstance(ReplicationMetrics.class);
+    admission = child.getInstance(PushAdmission.class);
+    hostLimit = child.getInstance(HostConnectionLimit.class);
   }
 
   public boolean validate() {
@@ -300,7 +346,78 @@ public class Destination {
   public void start(WorkQueue workQueue) {
     if (isPushEnabled()) {
       String poolName = "ReplicateTo-" + config.getRemoteConfig().getName();
-      pool = workQueue.createQueue(config.getPoolThreads(), poolName);
+      int maxThreads = config.getMaxPoolThreads();
+      pool = workQueue.createQueue(Math.max(config.getPoolThreads(), maxThreads), poolName);
+      useVirtualThreads(pool, poolName);
+      if (maxThreads > 0 && pool instanceof ScheduledThreadPoolExecutor) {
+        ScheduledThreadPoolExecutor executor = (ScheduledThreadPoolExecutor) pool;
+        concurrencyLimit =
+            new AdaptiveConcurrencyLimit(
+                config.getPoolThreads(),
+                config.getMinPoolThreads(),
+                maxThreads,
+                TimeUnit.SECONDS.toMillis(config.getSlowLatencyThreshold()),
+                limit -> {
+                  executor.setCorePoolSize(limit);
+                  recordConcurrencyLimit(limit);
+                  repLog.atInfo().log(
+                      "Pushes to %s limited to %d threads", getRemoteConfigName(), limit);
+                });
+        executor.setCorePoolSize(concurrencyLimit.get());
+        recordConcurrencyLimit(concurrencyLimit.get());
+      }
+      if (metrics != null) {
+        metrics.registerRateLimits(getRemoteConfigName(), pushStarts, transferredBytes);
+      }
+      if (admission != null) {
+        budget = admission.register(getRemoteConfigName(), config.getReservedPushes());
+      }
+      if (config.getPriorityThreads() > 0) {
+        priorityPool = workQueue.createQueue(config.getPriorityThreads(), poolName + "-Priority");
+        useVirtualThreads(priorityPool, poolName + "-Priority");
+      }
+      if (config.isFairQueuing()) {
+        fairPushes = new FairPushQueue(pool, config.getProjectWeights());
+      }
+      long tick = config.getTimingWheelTickMillis();
+      if (tick > 0) {
+        delayedPushes =
+            new TimingWheel(
+                "Delayed pushes to " + getRemoteConfigName(),
+                tick,
+                TimeUnit.MILLISECONDS,
+                this::execute);
+        // Bulk pushes occupying the pool must not hold back the priority ones
+        @SuppressWarnings("unused")
+        ScheduledFuture<?> ignored =
+            MoreObjects.firstNonNull(priorityPool, pool)
+                .scheduleAtFixedRate(delayedPushes, tick, tick, TimeUnit.MILLISECONDS);
+      }
+    }
+  }
+
+  /**
+   * Runs the tasks of the pool on virtual threads when configured, so that the threads blocked on
+   * the network during the pushes do not each hold a platform thread. The virtual threads stand for
+   * the threads of the factory of the pool, keeping their names and their handling of uncaught
+   * exceptions. The tasks are still queued in the pool, whose size bounds the concurrent pushes,
+   * and shown by show-queue.
+   */
+  private void useVirtualThreads(ScheduledExecutorService executor, String poolName) {
+    if (!config.useVirtualThreads()) {
+      return;
+    }
+    if (!(executor instanceof ScheduledThreadPoolExecutor)) {
+      repLog.atWarning().log("Cannot run %s on virtual threads", poolName);
+      return;
+    }
+    ScheduledThreadPoolExecutor pool = (ScheduledThreadPoolExecutor) executor;
+    Optional<ThreadFactory> factory = VirtualThreads.wrap(pool.getThreadFactory());
+    if (factory.isPresent()) {
+      pool.setThreadFactory(factory.get());
+    } else {
+      repLog.atWarning().log(
+          "Virtual threads are not available, %s runs on platform threads", poolName);
     }
   }
 
@@ -315,12 +432,11 @@ public class Destination {
             "Cancelling replication events (pending=%d, inFlight=%d) for destination %s",
             numPending, numInFlight, getRemoteConfigName());
 
-        foreachPushOp(
-            queue.pending,
-            push -> {
-              push.cancel();
-              return null;
-            });
+        // Not under the state lock, as the canceled pushes release their running push and their
+        // connection to the remote host
+        for (PushOne push : ImmutableList.copyOf(queue.pending.values())) {
+          push.cancel();
+        }
         queue.pending.clear();
         foreachPushOp(
             queue.inFlight,
@@ -330,8 +446,33 @@ public class Destination {
             });
         queue.inFlight.clear();
       }
+      successors.clear();
       cnt = pool.shutdownNow().size();
       pool = null;
+      if (concurrencyLimit != null) {
+        concurrencyLimit = null;
+        recordConcurrencyLimit(0);
+      }
+      if (metrics != null) {
+        metrics.registerRateLimits(getRemoteConfigName(), null, null);
+      }
+      if (budget != null) {
+        admission.unregister(budget);
+        budget = null;
+      }
+      if (priorityPool != null) {
+        cnt += priorityPool.shutdownNow().size();
+        priorityPool = null;
+      }
+      if (delayedPushes != null) {
+        cnt += delayedPushes.clear();
+        delayedPushes = null;
+      }
+      if (fairPushes != null) {
+        // Their dispatches were counted as tasks of the pool
+        fairPushes.clear();
+        fairPushes = null;
+      }
     }
     return cnt;
   }
@@ -340,7 +481,7 @@ public class Destination {
     // Callers may modify the provided opsMap concurrently, hence make a defensive copy of the
     // values to loop over them.
     for (PushOne pushOne : ImmutableList.copyOf(opsMap.values())) {
-      stateLock.withWriteLock(pushOne.getURI(), () -> pushOneFunction.apply(pushOne));
+      stateLock.withLock(pushOne.getURI(), () -> pushOneFunction.apply(pushOne));
     }
   }
 
@@ -481,7 +622,7 @@ public class Destination {
     repLog.atInfo().log("scheduling replication %s:%s => %s", project, refs, uri);
 
     if (!config.replicatePermissions()) {
-      PushOne e = stateLock.withReadLock(uri, () -> getPendingPush(uri));
+      PushOne e = getPendingPush(uri);
       if (e == null) {
         try (Repository git = gitManager.openRepository(project)) {
           try {
@@ -503,23 +644,30 @@ public class Destination {
     }
 
     ImmutableSet<String> refsToSchedule = toSchedule.build();
+    long delayMillis = now ? 0 : getDelayMillis(project, !fromStorage);
     PushOne task =
-        stateLock.withWriteLock(
+        stateLock.withLock(
             uri,
             () -> {
               PushOne t = getPendingPush(uri);
               if (t == null) {
                 t = opFactory.create(project, uri);
+                t.setPriority(isPriority(refsToSchedule, fromStorage));
                 t.addRefBatch(refsToSchedule);
                 t.addState(refsToSchedule, state);
-                @SuppressWarnings("unused")
-                ScheduledFuture<?> ignored =
-                    pool.schedule(t, now ? 0 : config.getDelay(), TimeUnit.SECONDS);
+                schedulePush(t, delayMillis, TimeUnit.MILLISECONDS);
                 queue.pending.put(uri, t);
+                if (metrics != null) {
+                  metrics.recordScheduledDelay(getRemoteConfigName(), delayMillis);
+                }
                 repLog.atInfo().log(
                     "scheduled %s:%s => %s to run %s",
-                    project, refsToSchedule, t, now ? "now" : "after " + config.getDelay() + "s");
+                    project, refsToSchedule, t, now ? "now" : "after " + delayMillis + "ms");
               } else {
+                if (t.isPriority() && !isPriority(refsToSchedule, fromStorage)) {
+                  // Already queued in its lane, but retried in the shared pool
+                  t.setPriority(false);
+                }
                 boolean added = t.addRefBatch(refsToSchedule);
                 t.addState(refsToSchedule, state);
                 String message = "consolidated %s:%s => %s with an existing pending push";
@@ -537,6 +685,157 @@ public class Destination {
     postReplicationScheduledEvent(task, refsToSchedule);
   }
 
+  /**
+   * The delay of a push of the project scheduled now: adapted to the rate of updates of the project
+   * when a maximum delay is configured, otherwise the fixed replication delay.
+   */
+  private long getDelayMillis(Project.NameKey project, boolean isUpdate) {
+    if (adaptiveDelay == null) {
+      return TimeUnit.SECONDS.toMillis(config.getDelay());
+    }
+    long delayMillis = adaptiveDelay.getDelayMillis(project);
+    if (isUpdate) {
+      adaptiveDelay.recordUpdate(project);
+    }
+    return delayMillis;
+  }
+
+  /**
+   * Whether a push of the refs goes to the threads reserved to priority refs: only the replication
+   * of ref updates whose refs all match {@code remote.NAME.priorityRefsPattern}, while the full
+   * syncs and the replays of the persisted tasks share the pool.
+   */
+  @VisibleForTesting
+  boolean isPriority(Set<String> refs, boolean fromStorage) {
+    if (priorityPool == null || fromStorage || refs.isEmpty()) {
+      return false;
+    }
+    return refs.stream()
+        .allMatch(
+            ref -> config.priorityRefsPattern().stream().anyMatch(p -> p.matcher(ref).matches()));
+  }
+
+  /** Limit of the bytes sent by the pushes to this destination, or null when unlimited. */
+  @Nullable
+  TokenBucket getTransferRateLimit() {
+    return transferredBytes;
+  }
+
+  private void recordConcurrencyLimit(int limit) {
+    if (metrics != null) {
+      metrics.recordConcurrencyLimit(getRemoteConfigName(), limit);
+    }
+  }
+
+  /**
+   * Records a push completed, which raises the number of threads of the pool when it adapts to the
+   * load of the remote and the push was not slower than the slow latency threshold.
+   */
+  void onPushSucceeded(PushOne op, long startedAt, long elapsedMillis) {
+    FairPushQueue fair = fairPushes;
+    if (fair != null) {
+      fair.recordCost(op.getProjectNameKey(), elapsedMillis);
+    }
+    if (circuitBreaker != null) {
+      circuitBreaker.onSuccess(CircuitBreaker.serverOf(op.getURI()));
+    }
+    AdaptiveConcurrencyLimit limit = concurrencyLimit;
+    if (limit != null) {
+      limit.onSuccess(startedAt, elapsedMillis);
+    }
+  }
+
+  /**
+   * Records a push failed with a transport error, which lowers the number of threads of the pool
+   * when it adapts to the load of the remote, and may stop the pushes to its server.
+   */
+  void onPushFailed(PushOne op, long startedAt) {
+    if (circuitBreaker != null) {
+      circuitBreaker.onFailure(CircuitBreaker.serverOf(op.getURI()), op.getId());
+    }
+    AdaptiveConcurrencyLimit limit = concurrencyLimit;
+    if (limit != null) {
+      limit.onFailure(startedAt);
+    }
+  }
+
+  private ScheduledExecutorService laneOf(Runnable task) {
+    ScheduledExecutorService priority = priorityPool;
+    if (priority != null && task instanceof PushOne && ((PushOne) task).isPriority()) {
+      return priority;
+    }
+    return pool;
+  }
+
+  /**
+   * Runs the push on the pool of its lane after the delay. With a timing wheel, the push is held by
+   * the wheel until due instead of being queued in the pool. With fair queuing, the push is then
+   * queued in the fair queue rather than run in the order it was scheduled.
+   */
+  private void schedulePush(PushOne push, long delay, TimeUnit unit) {
+    TimingWheel wheel = delayedPushes;
+    FairPushQueue fair = fairPushes;
+    if (wheel != null && delay > 0) {
+      wheel.schedule(push, delay, unit);
+    } else if (fair != null && laneOf(push) == pool) {
+      @SuppressWarnings("unused")
+      ScheduledFuture<?> ignored =
+          pool.schedule(new FairPushQueue.Release(push, this::execute), delay, unit);
+    } else {
+      @SuppressWarnings("unused")
+      ScheduledFuture<?> ignored = laneOf(push).schedule(push, delay, unit);
+    }
+  }
+
+  /** Runs a push which is due on the pool of its lane, through the fair queue when enabled. */
+  private void execute(Runnable task) {
+    FairPushQueue fair = fairPushes;
+    ScheduledExecutorService lane = laneOf(task);
+    if (fair != null && lane == pool && task instanceof PushOne) {
+      fair.add(((PushOne) task).getProjectNameKey(), task);
+    } else {
+      lane.execute(task);
+    }
+  }
+
+  /** Removes a canceled push from the timing wheel, rather than running it to find it canceled. */
+  private void cancelDelayedPush(PushOne push) {
+    TimingWheel wheel = delayedPushes;
+    if (wheel != null) {
+      wheel.cancel(push);
+    }
+  }
+
+  /**
+   * Cancels the pending pushes held by the timing wheel or the fair queue whose name is given, as
+   * done for the pushes queued in the pool by {@link ReplicationQueue}.
+   */
+  void cancelDelayedPushes(Set<String> taskNames) {
+    TimingWheel wheel = delayedPushes;
+    if (wheel != null) {
+      for (PushOne push : ImmutableList.copyOf(queue.pending.values())) {
+        if (taskNames.contains(push.toString()) && wheel.cancel(push)) {
+          repLog.atFine().log("Pruning externally completed task: %s", push);
+          push.cancel();
+        }
+      }
+    }
+    for (PushOne push : ImmutableList.copyOf(successors.values())) {
+      if (taskNames.contains(push.toString())
+          && stateLock.withLock(push.getURI(), () -> successors.remove(push.getURI(), push))) {
+        repLog.atFine().log("Pruning externally completed task: %s", push);
+        push.cancel();
+      }
+    }
+    FairPushQueue fair = fairPushes;
+    if (fair != null) {
+      for (Runnable push : fair.remove(p -> taskNames.contains(p.toString()))) {
+        repLog.atFine().log("Pruning externally completed task: %s", push);
+        ((PushOne) push).cancel();
+      }
+    }
+  }
+
   @Nullable
   private PushOne getPendingPush(URIish uri) {
     PushOne e = queue.pending.get(uri);
@@ -548,14 +847,19 @@ public class Destination {
 
   void pushWasCanceled(PushOne pushOp) {
     Set<ImmutableSet<String>> notAttemptedRefs =
-        stateLock.withWriteLock(
+        stateLock.withLock(
             pushOp.getURI(),
             () -> {
               URIish uri = pushOp.getURI();
               queue.pending.remove(uri);
+              refundStart(pushOp);
               return pushOp.getRefs();
             });
     pushOp.notifyNotAttempted(notAttemptedRefs);
+    if (queue.inFlight.get(pushOp.getURI()) != pushOp) {
+      // A push canceled while running releases what it holds once finished
+      release(pushOp);
+    }
   }
 
   void scheduleDeleteProject(URIish uri, Project.NameKey project, ProjectDeletionState state) {
@@ -580,9 +884,10 @@ public class Destination {
    * It schedules again a PushOp instance.
    *
    * <p>If the reason for rescheduling is to avoid a collision with an in-flight push to the same
-   * URI, we don't mark the operation as "retrying," and we schedule using the replication delay,
-   * rather than the retry delay. Otherwise, the operation is marked as "retrying" and scheduled to
-   * run following the minutes count determined by class attribute retryDelay.
+   * URI, we don't mark the operation as "retrying," and we park it as the successor of the
+   * in-flight push, started as soon as that one finishes. Otherwise, the operation is marked as
+   * "retrying" and scheduled to run following the minutes count determined by class attribute
+   * retryDelay, growing with the number of retries of the operation when capped by maxRetryDelay.
    *
    * <p>In case the PushOp instance to be scheduled has same URI than one marked as "retrying," it
    * adds to the one pending the refs list of the parameter instance.
@@ -596,13 +901,14 @@ public class Destination {
    * remove/add it from/to pending Map should be protected by synchronizing on the stateLock object.
    *
    * @param pushOp The PushOp instance to be scheduled.
+   * @return whether the PushOp instance was queued to run again, possibly already running.
    */
-  void reschedule(PushOne pushOp, RetryReason reason) {
+  boolean reschedule(PushOne pushOp, RetryReason reason) {
     if (!isPushEnabled()) {
-      return;
+      return false;
     }
     RescheduleStatus status = new RescheduleStatus();
-    stateLock.withWriteLock(
+    stateLock.withLock(
         pushOp.getURI(),
         () -> {
           URIish uri = pushOp.getURI();
@@ -639,6 +945,7 @@ public class Destination {
               // pending list and it will not execute its run implementation.
               pendingPushOp.canceledByReplication();
               queue.pending.remove(uri);
+              cancelDelayedPush(pendingPushOp);
 
               consolidateOnto(pushOp, pendingPushOp);
             }
@@ -646,11 +953,47 @@ public class Destination {
 
           if (pendingPushOp == null || !pendingPushOp.isRetrying()) {
             queue.pending.put(uri, pushOp);
+            status.isRequeued = true;
             switch (reason) {
+              case CIRCUIT_OPEN:
+                // Held without retrying, the refs of new events are added to it meanwhile
+                schedulePush(
+                    pushOp,
+                    Math.max(
+                        circuitBreaker.getProbeDelayMillis(CircuitBreaker.serverOf(uri)),
+                        TimeUnit.SECONDS.toMillis(config.getRescheduleDelay())),
+                    TimeUnit.MILLISECONDS);
+                break;
+              case RATE_LIMITED:
+                schedulePush(pushOp, pushOp.getStartDelayNanos(), TimeUnit.NANOSECONDS);
+                break;
+              case ADMISSION:
+                PushAdmission.Budget b = budget;
+                if (b == null) {
+                  schedulePush(pushOp, 0, TimeUnit.MILLISECONDS);
+                } else if (b.tryAcquireOrWait(() -> admit(pushOp, p -> p.setAdmission(b)))) {
+                  pushOp.setAdmission(b);
+                  schedulePush(pushOp, 0, TimeUnit.MILLISECONDS);
+                }
+                break;
+              case HOST_BUSY:
+                String host = hostLimit.hostOf(uri);
+                if (host == null) {
+                  schedulePush(pushOp, 0, TimeUnit.MILLISECONDS);
+                } else if (hostLimit.tryAcquireOrWait(
+                    host, () -> admit(pushOp, p -> p.setConnectedHost(host)))) {
+                  pushOp.setConnectedHost(host);
+                  schedulePush(pushOp, 0, TimeUnit.MILLISECONDS);
+                }
+                break;
               case COLLISION:
-                @SuppressWarnings("unused")
-                ScheduledFuture<?> ignored =
-                    pool.schedule(pushOp, config.getRescheduleDelay(), TimeUnit.SECONDS);
+                if (queue.inFlight.containsKey(uri)) {
+                  // Refs of new events are added to it while pending, until the hand-off
+                  successors.put(uri, pushOp);
+                } else {
+                  // The in-flight push finished meanwhile
+                  schedulePush(pushOp, 0, TimeUnit.MILLISECONDS);
+                }
                 break;
               case TRANSPORT_ERROR:
               case REPOSITORY_MISSING:
@@ -668,18 +1011,21 @@ public class Destination {
                     // Defer actual failoverTo until after this write lock is released
                     pushOp.canceledByReplication();
                     queue.pending.remove(uri);
+                    status.isRequeued = false;
                     status.failoverTo = nextUri;
                   } else {
                     status.isRescheduled = true;
                     replicationTasksStorage.get().reset(pushOp);
-                    @SuppressWarnings("unused")
-                    ScheduledFuture<?> ignored2 =
-                        pool.schedule(pushOp, config.getRetryDelay(), TimeUnit.MINUTES);
+                    schedulePush(
+                        pushOp,
+                        retryBackoff.delayMillis(pushOp.getRetryCount()),
+                        TimeUnit.MILLISECONDS);
                   }
                 } else {
                   pushOp.canceledByReplication();
                   pushOp.retryDone();
                   queue.pending.remove(uri);
+                  status.isRequeued = false;
                   stateLog.error(
                       "Push to " + pushOp.getURI() + " cancelled after maximum number of retries",
                       pushOp.getStatesAsArray());
@@ -699,6 +1045,7 @@ public class Destination {
     if (status.failoverTo != null) {
       failoverTo(pushOp, status.failoverTo);
     }
+    return status.isRequeued;
   }
 
   private void failoverTo(PushOne pushOp, URIish newUri) {
@@ -706,10 +1053,11 @@ public class Destination {
     replacement.addRefBatches(pushOp.getRefs());
     replacement.addStates(pushOp.getStates());
     replacement.setToRetryWithCount(pushOp.getRetryCount());
+    replacement.setPriority(pushOp.isPriority());
     pushOp.removeStates();
 
     boolean installed =
-        stateLock.withWriteLock(
+        stateLock.withLock(
             newUri,
             () -> {
               for (ReplicationTasksStorage.ReplicateRefUpdate u :
@@ -724,9 +1072,10 @@ public class Destination {
               }
               replicationTasksStorage.get().finish(pushOp);
               queue.pending.put(newUri, replacement);
-              @SuppressWarnings("unused")
-              ScheduledFuture<?> ignored =
-                  pool.schedule(replacement, config.getRetryDelay(), TimeUnit.MINUTES);
+              schedulePush(
+                  replacement,
+                  retryBackoff.delayMillis(replacement.getRetryCount()),
+                  TimeUnit.MILLISECONDS);
               return true;
             });
     repLog.atInfo().log(
@@ -737,40 +1086,135 @@ public class Destination {
     }
   }
 
-  private static void consolidateOnto(PushOne into, PushOne from) {
+  private void consolidateOnto(PushOne into, PushOne from) {
     into.addRefBatches(from.getRefs());
     into.addStates(from.getStates());
     from.removeStates();
+    refundStart(from);
+  }
+
+  /** Gives back the start reserved for a push which will not start, under its state lock. */
+  private void refundStart(PushOne op) {
+    if (pushStarts != null && op.cancelStartReservation()) {
+      pushStarts.refund(1);
+    }
   }
 
   RunwayStatus requestRunway(PushOne op) {
-    return stateLock.withWriteLock(
-        op.getURI(),
+    PushAdmission.Budget b = budget;
+    RunwayStatus status =
+        stateLock.withLock(
+            op.getURI(),
+            () -> {
+              if (op.wasCanceled()) {
+                return RunwayStatus.canceled();
+              }
+              queue.pending.remove(op.getURI());
+              PushOne inFlightOp = queue.inFlight.get(op.getURI());
+              if (inFlightOp != null) {
+                return RunwayStatus.denied(inFlightOp.getId());
+              }
+              if (pushStarts != null && op.reserveStart(pushStarts) > 0) {
+                return RunwayStatus.throttled();
+              }
+              RunwayStatus held = holdRunway(op, b);
+              if (!held.isAllowed() && pushStarts != null) {
+                // The push does not start, so the start it took is not used
+                pushStarts.refund(1);
+              }
+              return held;
+            });
+    if (!status.isAllowed()) {
+      release(op);
+    }
+    return status;
+  }
+
+  /**
+   * Takes what the push needs to run once its start is allowed by the rate of pushes, under the
+   * state lock of its URI.
+   */
+  private RunwayStatus holdRunway(PushOne op, @Nullable PushAdmission.Budget b) {
+    if (b != null && !op.isAdmitted()) {
+      if (!b.tryAcquire()) {
+        return RunwayStatus.waiting();
+      }
+      op.setAdmission(b);
+    }
+    if (hostLimit != null && !op.isConnected()) {
+      String host = hostLimit.hostOf(op.getURI());
+      if (host != null) {
+        if (!hostLimit.tryAcquire(host)) {
+          return RunwayStatus.hostBusy();
+        }
+        op.setConnectedHost(host);
+      }
+    }
+    // Last, as the probe allowed by an open circuit must then run
+    if (circuitBreaker != null
+        && !circuitBreaker.tryAcquire(CircuitBreaker.serverOf(op.getURI()), op.getId())) {
+      return RunwayStatus.blocked();
+    }
+    op.notifyNotAttempted(op.setStartedRefs(replicationTasksStorage.get().start(op)));
+    queue.inFlight.put(op.getURI(), op);
+    return RunwayStatus.allowed();
+  }
+
+  /**
+   * Schedules a push waiting for admission or for a connection to its host once released for it,
+   * unless the push is no longer pending.
+   *
+   * @param grant records the running push or the connection given to the push.
+   */
+  private boolean admit(PushOne push, Consumer<PushOne> grant) {
+    return stateLock.withLock(
+        push.getURI(),
         () -> {
-          if (op.wasCanceled()) {
-            return RunwayStatus.canceled();
-          }
-          queue.pending.remove(op.getURI());
-          PushOne inFlightOp = queue.inFlight.get(op.getURI());
-          if (inFlightOp != null) {
-            return RunwayStatus.denied(inFlightOp.getId());
+          if (pool == null || getPendingPush(push.getURI()) != push) {
+            return false;
           }
-          op.notifyNotAttempted(op.setStartedRefs(replicationTasksStorage.get().start(op)));
-          queue.inFlight.put(op.getURI(), op);
-          return RunwayStatus.allowed();
+          grant.accept(push);
+          schedulePush(push, 0, TimeUnit.MILLISECONDS);
+          return true;
         });
   }
 
+  /**
+   * Releases the running push admitted for the push and its connection to the remote host, out of
+   * the state locks.
+   */
+  private void release(PushOne op) {
+    PushAdmission.Budget b = op.takeAdmission();
+    if (b != null) {
+      b.release();
+    }
+    String host = op.takeConnectedHost();
+    if (host != null) {
+      hostLimit.release(host);
+    }
+  }
+
   void notifyFinished(PushOne op) {
-    stateLock.withWriteLock(
+    stateLock.withLock(
         op.getURI(),
         () -> {
           if (!op.isRetrying()) {
             replicationTasksStorage.get().finish(op);
           }
           queue.inFlight.remove(op.getURI());
+          PushOne successor = successors.remove(op.getURI());
+          if (successor != null && successor == getPendingPush(op.getURI()) && pool != null) {
+            repLog.atFine().log(
+                "Starting replication to %s after the in-flight push [%s]",
+                op.getURI(), HexFormat.fromInt(op.getId()));
+            schedulePush(successor, 0, TimeUnit.MILLISECONDS);
+          }
           return null;
         });
+    release(op);
+    if (circuitBreaker != null) {
+      circuitBreaker.onFinished(CircuitBreaker.serverOf(op.getURI()), op.getId());
+    }
   }
 
   public Map<ReplicateRefUpdate, String> getTaskNamesByReplicateRefUpdate() {
@@ -960,7 +1404,8 @@ public class Destination {
   }
 
   public long getReplicationDelayMilliseconds() {
-    return config.getDelay() * 1000L;
+    return TimeUnit.SECONDS.toMillis(
+        adaptiveDelay != null ? config.getMaxDelay() : config.getDelay());
   }
 
   int getSlowLatencyThreshold() {
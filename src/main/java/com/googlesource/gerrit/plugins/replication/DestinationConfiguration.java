@@ -19,9 +19,14 @@ import static com.googlesource.gerrit.plugins.replication.ReplicationQueue.repLo
 
 import com.google.common.base.MoreObjects;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.primitives.Doubles;
+import com.google.gerrit.entities.Project;
 import com.google.gerrit.server.config.ConfigUtil;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
@@ -33,15 +38,33 @@ public class DestinationConfiguration implements RemoteConfiguration {
   static final int DEFAULT_REPLICATION_DELAY = 15;
   static final int DEFAULT_RESCHEDULE_DELAY = 3;
   static final int DEFAULT_DRAIN_QUEUE_ATTEMPTS = 0;
+  static final long DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
   private static final int DEFAULT_SLOW_LATENCY_THRESHOLD_SECS = 900;
+  private static final ImmutableList<String> DEFAULT_PRIORITY_REFS_PATTERN =
+      ImmutableList.of("refs/heads/.*", "refs/meta/config");
 
   private final int delay;
+  private final int minDelay;
+  private final int maxDelay;
   private final int rescheduleDelay;
   private final int retryDelay;
+  private final int maxRetryDelay;
+  private final int circuitBreakerThreshold;
+  private final boolean fairQueuing;
+  private final ImmutableMap<Project.NameKey, Double> projectWeights;
+  private final long circuitBreakerProbeIntervalMillis;
   private final int drainQueueAttempts;
   private final int updateRefErrorMaxRetries;
   private final ImmutableList<String> adminUrls;
   private final int poolThreads;
+  private final int minPoolThreads;
+  private final int maxPoolThreads;
+  private final int priorityThreads;
+  private final boolean virtualThreads;
+  private final int maxPushRate;
+  private final long maxTransferRate;
+  private final int reservedPushes;
+  private final long timingWheelTickMillis;
   private final boolean createMissingRepos;
   private final boolean replicateNoteDbMetaRefs;
   private final boolean replicatePermissions;
@@ -57,6 +80,7 @@ public class DestinationConfiguration implements RemoteConfiguration {
   private final int slowLatencyThreshold;
   private final Supplier<Integer> pushBatchSize;
   private final ImmutableList<Pattern> excludedRefsPattern;
+  private final ImmutableList<Pattern> priorityRefsPattern;
   private final boolean storeRefLog;
   private final String uploadPack;
   private final String receivePack;
@@ -68,15 +92,49 @@ public class DestinationConfiguration implements RemoteConfiguration {
     String name = remoteConfig.getName();
     urls = ImmutableList.copyOf(cfg.getStringList("remote", name, "url"));
     delay = Math.max(0, getInt(remoteConfig, cfg, "replicationdelay", DEFAULT_REPLICATION_DELAY));
+    minDelay = Math.max(0, getInt(remoteConfig, cfg, "minReplicationDelay", 0));
+    maxDelay = Math.max(minDelay, getInt(remoteConfig, cfg, "maxReplicationDelay", 0));
     rescheduleDelay =
         Math.max(3, getInt(remoteConfig, cfg, "rescheduledelay", DEFAULT_RESCHEDULE_DELAY));
     projects = ImmutableList.copyOf(cfg.getStringList("remote", name, "projects"));
     excludeProjects = ImmutableList.copyOf(cfg.getStringList("remote", name, "excludeProjects"));
     adminUrls = ImmutableList.copyOf(cfg.getStringList("remote", name, "adminUrl"));
     retryDelay = Math.max(0, getInt(remoteConfig, cfg, "replicationretry", 1));
+    maxRetryDelay = Math.max(0, getInt(remoteConfig, cfg, "maxRetryDelay", 0));
+    circuitBreakerThreshold = Math.max(0, getInt(remoteConfig, cfg, "circuitBreakerThreshold", 0));
+    fairQueuing = cfg.getBoolean("remote", name, "fairQueuing", false);
+    projectWeights = getProjectWeights(cfg, name);
+    circuitBreakerProbeIntervalMillis =
+        Math.max(
+            0,
+            ConfigUtil.getTimeUnit(
+                cfg,
+                "remote",
+                name,
+                "circuitBreakerProbeInterval",
+                DEFAULT_CIRCUIT_BREAKER_PROBE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS));
     drainQueueAttempts =
         Math.max(0, getInt(remoteConfig, cfg, "drainQueueAttempts", DEFAULT_DRAIN_QUEUE_ATTEMPTS));
     poolThreads = Math.max(0, getInt(remoteConfig, cfg, "threads", 1));
+    minPoolThreads = Math.max(1, getInt(remoteConfig, cfg, "minThreads", 1));
+    maxPoolThreads = Math.max(0, getInt(remoteConfig, cfg, "maxThreads", 0));
+    priorityThreads = Math.max(0, getInt(remoteConfig, cfg, "priorityThreads", 0));
+    virtualThreads = cfg.getBoolean("remote", name, "virtualThreads", false);
+    maxPushRate = Math.max(0, getInt(remoteConfig, cfg, "maxPushRate", 0));
+    maxTransferRate = Math.max(0, cfg.getLong("remote", name, "maxTransferRate", 0));
+    reservedPushes = Math.max(0, getInt(remoteConfig, cfg, "reservedPushes", 0));
+    timingWheelTickMillis =
+        Math.max(
+            0,
+            ConfigUtil.getTimeUnit(
+                cfg,
+                "remote",
+                name,
+                "timingWheelTick",
+                ConfigUtil.getTimeUnit(
+                    cfg, "replication", null, "timingWheelTick", 0, TimeUnit.MILLISECONDS),
+                TimeUnit.MILLISECONDS));
     authGroupNames = ImmutableList.copyOf(cfg.getStringList("remote", name, "authGroup"));
     updateRefErrorMaxRetries =
         cfg.getInt(
@@ -128,7 +186,9 @@ public class DestinationConfiguration implements RemoteConfiguration {
               }
               return 0;
             });
-    excludedRefsPattern = getExcludedRefsPattern(cfg, name);
+    excludedRefsPattern = getRefsPattern(cfg, name, "excludedRefsPattern", ImmutableList.of());
+    priorityRefsPattern =
+        getRefsPattern(cfg, name, "priorityRefsPattern", DEFAULT_PRIORITY_REFS_PATTERN);
     storeRefLog = cfg.getBoolean("remote", name, "storeRefLog", false);
     uploadPack = cfg.getString("remote", name, "uploadpack");
     receivePack = cfg.getString("remote", name, "receivepack");
@@ -153,6 +213,37 @@ public class DestinationConfiguration implements RemoteConfiguration {
     return retryDelay;
   }
 
+  /**
+   * Cap in minutes of the delay when retrying a failed push again, or 0 when the delay is always
+   * {@link #getRetryDelay()}.
+   */
+  public int getMaxRetryDelay() {
+    return maxRetryDelay;
+  }
+
+  /**
+   * Number of consecutive transport failures of the pushes to a remote server after which they are
+   * held, or 0 when they are never held.
+   */
+  public int getCircuitBreakerThreshold() {
+    return circuitBreakerThreshold;
+  }
+
+  /** Whether the due pushes run in a fair order across projects. */
+  public boolean isFairQueuing() {
+    return fairQueuing;
+  }
+
+  /** Weights of the projects in the fair order of the pushes, 1 for the projects not listed. */
+  public ImmutableMap<Project.NameKey, Double> getProjectWeights() {
+    return projectWeights;
+  }
+
+  /** Interval between the probe pushes to a remote server whose pushes are held. */
+  public long getCircuitBreakerProbeIntervalMillis() {
+    return circuitBreakerProbeIntervalMillis;
+  }
+
   public int getDrainQueueAttempts() {
     return drainQueueAttempts;
   }
@@ -161,6 +252,72 @@ public class DestinationConfiguration implements RemoteConfiguration {
     return poolThreads;
   }
 
+  /** Lowest number of threads of the pool when it adapts to the load of the remote. */
+  public int getMinPoolThreads() {
+    return minPoolThreads;
+  }
+
+  /**
+   * Highest number of threads of the pool when it adapts to the load of the remote, or 0 when the
+   * pool has {@link #getPoolThreads()} threads.
+   */
+  public int getMaxPoolThreads() {
+    return maxPoolThreads;
+  }
+
+  /**
+   * Number of threads reserved to the pushes of the refs matching {@link #priorityRefsPattern()},
+   * or 0 when all the pushes share the pool.
+   */
+  public int getPriorityThreads() {
+    return priorityThreads;
+  }
+
+  /** Whether the worker threads of the remote are virtual threads, when the runtime has them. */
+  public boolean useVirtualThreads() {
+    return virtualThreads;
+  }
+
+  /** Highest number of pushes started per minute, or 0 when unlimited. */
+  public int getMaxPushRate() {
+    return maxPushRate;
+  }
+
+  /** Highest number of bytes sent per second by the pushes, or 0 when unlimited. */
+  public long getMaxTransferRate() {
+    return maxTransferRate;
+  }
+
+  /** Number of pushes to the remote allowed whatever the pushes to the other remotes. */
+  public int getReservedPushes() {
+    return reservedPushes;
+  }
+
+  /** Patterns of the refs pushed by the priority threads when their update is replicated. */
+  public ImmutableList<Pattern> priorityRefsPattern() {
+    return priorityRefsPattern;
+  }
+
+  /** Minimum delay in seconds of the pushes when the delay adapts to the rate of updates. */
+  public int getMinDelay() {
+    return minDelay;
+  }
+
+  /**
+   * Maximum delay in seconds of the pushes when the delay adapts to the rate of updates, or 0 when
+   * the pushes are delayed by {@link #getDelay()}.
+   */
+  public int getMaxDelay() {
+    return maxDelay;
+  }
+
+  /**
+   * Tick of the timing wheel holding the delayed pushes, or 0 when they are delayed by the pool.
+   */
+  public long getTimingWheelTickMillis() {
+    return timingWheelTickMillis;
+  }
+
   public int getUpdateRefErrorMaxRetries() {
     return updateRefErrorMaxRetries;
   }
@@ -268,13 +425,29 @@ public class DestinationConfiguration implements RemoteConfiguration {
     return urlDistributionStrategy;
   }
 
-  private ImmutableList<Pattern> getExcludedRefsPattern(Config cfg, String name) {
+  private ImmutableMap<Project.NameKey, Double> getProjectWeights(Config cfg, String name) {
+    Map<Project.NameKey, Double> weights = new HashMap<>();
+    for (String value : cfg.getStringList("remote", name, "projectWeight")) {
+      int sep = value.lastIndexOf(':');
+      Double weight = sep > 0 ? Doubles.tryParse(value.substring(sep + 1).trim()) : null;
+      if (weight == null || !(weight > 0)) {
+        repLog.atWarning().log("Invalid projectWeight '%s' is ignored", value);
+        continue;
+      }
+      weights.put(Project.nameKey(value.substring(0, sep).trim()), weight);
+    }
+    return ImmutableMap.copyOf(weights);
+  }
+
+  private ImmutableList<Pattern> getRefsPattern(
+      Config cfg, String name, String key, ImmutableList<String> defaultRegexes) {
+    String[] configured = cfg.getStringList("remote", name, key);
     List<Pattern> patterns = new ArrayList<>();
-    for (String regex : cfg.getStringList("remote", name, "excludedRefsPattern")) {
+    for (String regex : configured.length > 0 ? List.of(configured) : defaultRegexes) {
       try {
         patterns.add(Pattern.compile(regex));
       } catch (PatternSyntaxException e) {
-        repLog.atWarning().log("Invalid excludedRefsPattern '%s' is ignored", regex);
+        repLog.atWarning().log("Invalid %s '%s' is ignored", key, regex);
       }
     }
     return ImmutableList.copyOf(patterns);
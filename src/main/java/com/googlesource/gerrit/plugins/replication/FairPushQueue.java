@@ -0,0 +1,283 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.ProjectRunnable;
+import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * Runs the pushes which are due in a fair order across projects rather than in the order they were
+ * scheduled, so that the pushes of a project taking long to replicate do not hold back the other
+ * projects.
+ *
+ * <p>This is a self-clocked fair queue: each push is tagged with a virtual finish time, which is
+ * its cost, the recent duration of the pushes of its project divided by the weight of the project,
+ * added to the later of the finish time of the previous push of the project and the finish time of
+ * the last push run. The pushes are run by increasing finish time, one for each execution of the
+ * executor requested when the push is added.
+ *
+ * <p>Each of those executions shows as one of the pushes waiting, so that they are listed by
+ * show-queue while queued in the executor, and cancels it when canceled.
+ */
+class FairPushQueue {
+  static final double DEFAULT_COST_MS = 1;
+  static final double COST_SMOOTHING = 0.3;
+
+  /** A push waiting for a thread. */
+  private static class Entry {
+    final Project.NameKey project;
+    final Runnable push;
+    final double finish;
+    final long seq;
+    @Nullable Dispatch dispatch;
+
+    Entry(Project.NameKey project, Runnable push, double finish, long seq) {
+      this.project = project;
+      this.push = push;
+      this.finish = finish;
+      this.seq = seq;
+    }
+  }
+
+  /**
+   * Runs the next push in fair order on a thread of the executor, showing as one of the pushes
+   * waiting meanwhile. When a dispatch runs another push than the one it shows, the dispatch of
+   * that push takes over the one it showed, so that the dispatches queued show the pushes waiting.
+   */
+  private class Dispatch implements ProjectRunnable, CancelableRunnable {
+    @Nullable private Entry entry;
+    @Nullable private volatile Entry shown;
+
+    Dispatch(Entry entry) {
+      show(entry);
+    }
+
+    /** Shows the push, or none once it is removed or run, guarded by the queue. */
+    void show(@Nullable Entry e) {
+      entry = e;
+      shown = e;
+      if (e != null) {
+        e.dispatch = this;
+      }
+    }
+
+    /** Shows the push it runs, guarded by the queue. */
+    void showRunning(Entry e) {
+      entry = null;
+      shown = e;
+    }
+
+    @Override
+    public void run() {
+      runNext(this);
+    }
+
+    @Override
+    public void cancel() {
+      Entry e;
+      synchronized (FairPushQueue.this) {
+        e = entry;
+        if (e == null || !ready.remove(e)) {
+          return;
+        }
+        show(null);
+      }
+      if (e.push instanceof CancelableRunnable) {
+        ((CancelableRunnable) e.push).cancel();
+      }
+    }
+
+    @Override
+    public Project.NameKey getProjectNameKey() {
+      Entry e = shown;
+      return e != null ? e.project : null;
+    }
+
+    @Override
+    public String getRemoteName() {
+      Entry e = shown;
+      return e != null && e.push instanceof ProjectRunnable
+          ? ((ProjectRunnable) e.push).getRemoteName()
+          : null;
+    }
+
+    @Override
+    public boolean hasCustomizedPrint() {
+      Entry e = shown;
+      return e != null
+          && e.push instanceof ProjectRunnable
+          && ((ProjectRunnable) e.push).hasCustomizedPrint();
+    }
+
+    @Override
+    public String toString() {
+      Entry e = shown;
+      return e != null ? e.push.toString() : "(no push waiting)";
+    }
+  }
+
+  /** Schedules the push in the fair queue once its delay has expired. */
+  static class Release implements ProjectRunnable, CancelableRunnable {
+    private final PushOne push;
+    private final Consumer<PushOne> release;
+
+    Release(PushOne push, Consumer<PushOne> release) {
+      this.push = push;
+      this.release = release;
+    }
+
+    @Override
+    public void run() {
+      release.accept(push);
+    }
+
+    @Override
+    public void cancel() {
+      push.cancel();
+    }
+
+    @Override
+    public Project.NameKey getProjectNameKey() {
+      return push.getProjectNameKey();
+    }
+
+    @Override
+    public String getRemoteName() {
+      return push.getRemoteName();
+    }
+
+    @Override
+    public boolean hasCustomizedPrint() {
+      return push.hasCustomizedPrint();
+    }
+
+    @Override
+    public String toString() {
+      return push.toString();
+    }
+  }
+
+  private final Executor executor;
+  private final ImmutableMap<Project.NameKey, Double> weights;
+  private final PriorityQueue<Entry> ready =
+      new PriorityQueue<>(
+          Comparator.<Entry>comparingDouble(e -> e.finish).thenComparingLong(e -> e.seq));
+  private final Map<Project.NameKey, Double> lastFinish = new HashMap<>();
+  private final Cache<Project.NameKey, Double> costs =
+      CacheBuilder.newBuilder().expireAfterAccess(Duration.ofHours(1)).build();
+  private double virtualTime;
+  private long seq;
+
+  FairPushQueue(Executor executor, Map<Project.NameKey, Double> weights) {
+    this.executor = executor;
+    this.weights = ImmutableMap.copyOf(weights);
+  }
+
+  /** Queues a push of the project which is due, to be run once its turn comes. */
+  void add(Project.NameKey project, Runnable push) {
+    Dispatch dispatch;
+    synchronized (this) {
+      double cost = getCost(project) / weights.getOrDefault(project, 1.0);
+      double start = Math.max(virtualTime, lastFinish.getOrDefault(project, 0.0));
+      double finish = start + cost;
+      lastFinish.put(project, finish);
+      Entry e = new Entry(project, push, finish, seq++);
+      ready.add(e);
+      dispatch = new Dispatch(e);
+    }
+    executor.execute(dispatch);
+  }
+
+  /** Records the duration of a push of the project, the cost of its next pushes. */
+  void recordCost(Project.NameKey project, long elapsedMillis) {
+    costs
+        .asMap()
+        .merge(
+            project,
+            (double) Math.max(1, elapsedMillis),
+            (cost, sample) -> cost + COST_SMOOTHING * (sample - cost));
+  }
+
+  /**
+   * Removes the queued pushes matching the filter.
+   *
+   * @return the removed pushes.
+   */
+  synchronized Set<Runnable> remove(Predicate<Runnable> filter) {
+    Set<Runnable> removed = new HashSet<>();
+    ready.removeIf(
+        e -> {
+          if (filter.test(e.push)) {
+            removed.add(e.push);
+            if (e.dispatch != null) {
+              e.dispatch.show(null);
+            }
+            return true;
+          }
+          return false;
+        });
+    return removed;
+  }
+
+  synchronized int size() {
+    return ready.size();
+  }
+
+  synchronized void clear() {
+    ready.clear();
+    lastFinish.clear();
+  }
+
+  private void runNext(Dispatch dispatch) {
+    Entry next;
+    synchronized (this) {
+      next = ready.poll();
+      if (next == null) {
+        dispatch.show(null);
+        return;
+      }
+      if (next.dispatch != dispatch && next.dispatch != null) {
+        next.dispatch.show(dispatch.entry);
+      }
+      dispatch.showRunning(next);
+      virtualTime = next.finish;
+      if (lastFinish.size() > 2 * ready.size() + 1000) {
+        // Projects finished before the virtual time start from it anyway
+        lastFinish.values().removeIf(finish -> finish <= virtualTime);
+      }
+    }
+    next.push.run();
+  }
+
+  private double getCost(Project.NameKey project) {
+    Double cost = costs.getIfPresent(project);
+    return cost != null ? cost : DEFAULT_COST_MS;
+  }
+}
@@ -0,0 +1,192 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.IntSupplier;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Limits the number of connections opened at once to a remote host, by the pushes and the
+ * administrative tasks of all the remotes pointing to it.
+ *
+ * <p>A host is identified by its name and port, so that the remotes of different groups of projects
+ * replicated to the same server share its limit. A task which cannot connect waits for another
+ * connection to the host to be released, the tasks waiting being let through in the order they
+ * started to wait.
+ */
+@Singleton
+public class HostConnectionLimit {
+  /** The connections to a host, absent while none is open or awaited. */
+  private static class Host {
+    int open;
+    final Deque<PushAdmission.Waiter> waiting = new ArrayDeque<>();
+  }
+
+  private final IntSupplier limit;
+  private final Map<String, Host> hosts = new HashMap<>();
+
+  @Inject
+  HostConnectionLimit(ReplicationConfig replicationConfig) {
+    this(replicationConfig::getMaxConnectionsPerHost);
+  }
+
+  @VisibleForTesting
+  HostConnectionLimit(IntSupplier limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * The host of the URI whose connections are limited, with the default port of its scheme when
+   * none is given.
+   *
+   * @return the host, or null when the connections to the URI are not limited, either because there
+   *     is no limit or because the URI is local.
+   */
+  @Nullable
+  String hostOf(URIish uri) {
+    if (limit.getAsInt() <= 0 || Strings.isNullOrEmpty(uri.getHost())) {
+      return null;
+    }
+    return uri.getHost().toLowerCase(Locale.ROOT) + ":" + portOf(uri);
+  }
+
+  /** Opens a connection to the host when below the limit. */
+  synchronized boolean tryAcquire(String host) {
+    Host h = hosts.computeIfAbsent(host, k -> new Host());
+    if (h.open < limit.getAsInt()) {
+      h.open++;
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * Opens a connection to the host when below the limit, or queues the waiter to be let through
+   * once a connection to the host is released.
+   *
+   * @return whether the connection is opened, in which case the waiter is not queued.
+   */
+  synchronized boolean tryAcquireOrWait(String host, PushAdmission.Waiter waiter) {
+    if (tryAcquire(host)) {
+      return true;
+    }
+    hosts.get(host).waiting.add(waiter);
+    return false;
+  }
+
+  /** Opens a connection to the host, waiting for one to be released when at the limit. */
+  void acquire(String host) throws InterruptedException {
+    CountDownLatch admitted = new CountDownLatch(1);
+    PushAdmission.Waiter waiter =
+        () -> {
+          admitted.countDown();
+          return true;
+        };
+    if (tryAcquireOrWait(host, waiter)) {
+      return;
+    }
+    try {
+      admitted.await();
+    } catch (InterruptedException e) {
+      boolean stillWaiting;
+      synchronized (this) {
+        stillWaiting = hosts.get(host).waiting.remove(waiter);
+      }
+      if (!stillWaiting) {
+        release(host);
+      }
+      throw e;
+    }
+  }
+
+  /** Releases a connection to the host, letting the next task waiting through, if any. */
+  void release(String host) {
+    PushAdmission.Waiter next;
+    do {
+      synchronized (this) {
+        Host h = hosts.get(host);
+        next = h.waiting.poll();
+        if (next == null) {
+          // The connection is handed over to the next waiter otherwise
+          if (--h.open == 0) {
+            hosts.remove(host);
+          }
+        }
+      }
+      // Let through outside the lock, as the pushes take their own locks
+    } while (next != null && !next.admit());
+  }
+
+  /**
+   * Runs a task connecting to the URI, once a connection to its host can be opened.
+   *
+   * @throws InterruptedException if interrupted while waiting for a connection, in which case the
+   *     task is not run.
+   */
+  void runConnected(URIish uri, Runnable task) throws InterruptedException {
+    String host = hostOf(uri);
+    if (host == null) {
+      task.run();
+      return;
+    }
+    acquire(host);
+    try {
+      task.run();
+    } finally {
+      release(host);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getOpen(String host) {
+    Host h = hosts.get(host);
+    return h != null ? h.open : 0;
+  }
+
+  /** The port of the URI, or the default port of its scheme when none is given. */
+  static int portOf(URIish uri) {
+    return uri.getPort() > 0 ? uri.getPort() : defaultPort(uri.getScheme());
+  }
+
+  private static int defaultPort(@Nullable String scheme) {
+    if (scheme == null) {
+      // scp-like syntax
+      return 22;
+    }
+    switch (scheme) {
+      case "http":
+        return 80;
+      case "https":
+        return 443;
+      case "git":
+        return 9418;
+      case "ssh":
+      default:
+        return 22;
+    }
+  }
+}
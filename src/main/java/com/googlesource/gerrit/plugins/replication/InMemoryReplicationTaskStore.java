@@ -0,0 +1,78 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationTaskStore;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ReplicationTaskStore} which only keeps the tasks in memory, for replicas which do not
+ * need the tasks to survive a restart. The tasks are kept in concurrent maps by key, and each state
+ * transition is a removal from one map followed by an insertion into the other, without locking.
+ */
+@Singleton
+public class InMemoryReplicationTaskStore implements ReplicationTaskStore {
+  private final ConcurrentMap<String, Task> waiting = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Task> running = new ConcurrentHashMap<>();
+
+  @Override
+  public boolean create(Task task) {
+    waiting.putIfAbsent(task.key(), task);
+    return true;
+  }
+
+  @Override
+  public boolean start(Task task) {
+    Task started = waiting.remove(task.key());
+    if (started == null) {
+      return false;
+    }
+    running.put(task.key(), started);
+    return true;
+  }
+
+  @Override
+  public boolean reset(Task task) {
+    Task reset = running.remove(task.key());
+    if (reset == null) {
+      return false;
+    }
+    waiting.putIfAbsent(task.key(), reset);
+    return true;
+  }
+
+  @Override
+  public boolean finish(Task task) {
+    return running.remove(task.key()) != null;
+  }
+
+  @Override
+  public boolean isWaiting(Task task) {
+    return waiting.containsKey(task.key());
+  }
+
+  @Override
+  public Stream<Task> streamWaiting() {
+    return waiting.values().stream();
+  }
+
+  @Override
+  public Stream<Task> streamRunning() {
+    return running.values().stream();
+  }
+}
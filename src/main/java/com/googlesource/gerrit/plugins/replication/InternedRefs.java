@@ -0,0 +1,72 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Shares the ref names and the batches of refs to replicate between the pending pushes and the
+ * replication tasks.
+ *
+ * <p>A ref update is scheduled for every URI of every remote replicating its project, and its task
+ * is read back from the task storage when replayed, each time with its own copy of the refs. While
+ * a remote is unreachable, the copies of the same refs pile up. Interning keeps a single copy of
+ * each ref name and of each batch, which the pushes compare by identity when merged. The interned
+ * values are released once no push or task refers to them.
+ */
+class InternedRefs {
+  private static final Interner<String> NAMES = Interners.newWeakInterner();
+  private static final Interner<ImmutableSet<String>> BATCHES = Interners.newWeakInterner();
+
+  private InternedRefs() {}
+
+  static String intern(String ref) {
+    return NAMES.intern(ref);
+  }
+
+  /**
+   * The shared batch with the same refs in the same order, whose names are shared too. A batch with
+   * the refs of a shared one in another order only shares their names.
+   */
+  static ImmutableSet<String> intern(ImmutableSet<String> batch) {
+    if (hasSharedNames(batch)) {
+      // Most batches are the shared ones already, or copies of them read back with shared names
+      ImmutableSet<String> interned = BATCHES.intern(batch);
+      return interned == batch || interned.asList().equals(batch.asList()) ? interned : batch;
+    }
+    if (batch.size() == 1) {
+      String ref = batch.iterator().next();
+      String interned = NAMES.intern(ref);
+      return BATCHES.intern(interned == ref ? batch : ImmutableSet.of(interned));
+    }
+    ImmutableSet<String> names = batch.stream().map(NAMES::intern).collect(toImmutableSet());
+    ImmutableSet<String> interned = BATCHES.intern(names);
+    // The order of the refs is kept, as the keys of the tasks depend on it
+    return interned.asList().equals(names.asList()) ? interned : names;
+  }
+
+  private static boolean hasSharedNames(ImmutableSet<String> batch) {
+    for (String ref : batch) {
+      if (NAMES.intern(ref) != ref) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,169 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.extensions.events.LifecycleListener;
+import com.google.gerrit.metrics.Timer1;
+import com.google.inject.Inject;
+import com.google.inject.ProvisionException;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * A {@link ReplicationTasksStorage} which keeps the tasks in a {@link ReplicationTasksJournal}
+ * under <replication_data>/ref-updates-journal instead of one file per task.
+ *
+ * <p>On first use any task left in the file based layout under <replication_data>/ref-updates is
+ * imported into the journal and its file deleted.
+ *
+ * <p>The journal is owned by a single process, so this storage cannot be used by multiple primaries
+ * sharing the replication data.
+ */
+@Singleton
+public class JournalReplicationTasksStorage extends ReplicationTasksStorage
+    implements LifecycleListener {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  static final String JOURNAL_DIR = "ref-updates-journal";
+  static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+  private final ReplicationTasksJournal journal;
+
+  @Inject
+  JournalReplicationTasksStorage(ReplicationConfig config) {
+    this(
+        config.getEventsDirectory().resolve("ref-updates"),
+        config.getEventsDirectory().resolve(JOURNAL_DIR),
+        config.getConfig().getLong("replication", "journalSegmentSize", DEFAULT_SEGMENT_SIZE),
+        getDurability(config),
+        getTaskEncoding(config));
+  }
+
+  @VisibleForTesting
+  JournalReplicationTasksStorage(
+      Path refUpdates,
+      Path journalDir,
+      long segmentSize,
+      Durability durability,
+      TaskEncoding encoding) {
+    super(refUpdates, durability, encoding);
+    try {
+      journal = new ReplicationTasksJournal(journalDir, segmentSize, durability, this::encode);
+      migrate(refUpdates);
+    } catch (IOException e) {
+      throw new ProvisionException(
+          String.format("Couldn't open replication journal %s", journalDir), e);
+    }
+  }
+
+  @Override
+  public void start() {}
+
+  @Override
+  public void stop() {
+    journal.close();
+  }
+
+  @Override
+  protected Set<ReplicateRefUpdate> commit(List<Transition> transitions) {
+    try (Timer1.Context<String> ctx = startTimer("append")) {
+      return journal.commit(transitions);
+    }
+  }
+
+  @Override
+  public Map<String, RemoteTaskStats> getTaskStats() {
+    TaskStatsCollector stats = new TaskStatsCollector();
+    journal.collectStats(stats);
+    return stats.build();
+  }
+
+  @Override
+  public boolean isWaiting(UriUpdates uriUpdates) {
+    return uriUpdates.getReplicateRefUpdates().stream().anyMatch(journal::isWaiting);
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamWaiting() {
+    return journal.streamWaiting();
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamWaiting(Set<String> remotes) {
+    return journal.streamWaiting().filter(u -> remotes.contains(u.remote()));
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamRunning() {
+    return journal.streamRunning();
+  }
+
+  @Override
+  public Stream<ReplicateRefUpdate> streamRunning(Set<String> remotes) {
+    return journal.streamRunning().filter(u -> remotes.contains(u.remote()));
+  }
+
+  /**
+   * Imports the tasks of the file based layout. The running tasks are imported first so that a task
+   * which is both running and waiting ends up in both states. The files are only deleted once the
+   * imported tasks have been forced to disk.
+   */
+  private void migrate(Path refUpdates) throws IOException {
+    if (!Files.isDirectory(refUpdates)) {
+      return;
+    }
+    ImmutableList<ReplicateRefUpdate> running =
+        super.streamRunning().collect(ImmutableList.toImmutableList());
+    ImmutableList<ReplicateRefUpdate> waiting =
+        super.streamWaiting().collect(ImmutableList.toImmutableList());
+    if (running.isEmpty() && waiting.isEmpty()) {
+      return;
+    }
+
+    List<Transition> transitions = new ArrayList<>();
+    for (ReplicateRefUpdate update : running) {
+      transitions.add(Transition.create(Op.CREATE, update));
+      transitions.add(Transition.create(Op.START, update));
+    }
+    for (ReplicateRefUpdate update : waiting) {
+      transitions.add(Transition.create(Op.CREATE, update));
+    }
+    if (journal.commit(transitions).isEmpty()) {
+      throw new IOException(String.format("Couldn't import the tasks under %s", refUpdates));
+    }
+    journal.sync();
+
+    for (ReplicateRefUpdate update : running) {
+      Files.deleteIfExists(new Task(update).running);
+    }
+    for (ReplicateRefUpdate update : waiting) {
+      Files.deleteIfExists(new Task(update).waiting);
+    }
+    logger.atInfo().log(
+        "Migrated %d running and %d waiting replication tasks from %s to the journal",
+        running.size(), waiting.size(), refUpdates);
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Decodes task files on a bounded pool of threads while the resulting {@link Stream} is consumed.
+ *
+ * <p>Up to {@code threads * READ_AHEAD_PER_THREAD} files are read ahead of the consumer, which
+ * bounds the memory used by the decoded but not yet consumed tasks. The tasks are returned in the
+ * order of the files. The threads are only kept while files are being read.
+ *
+ * <p>With a single thread the files are decoded by the consumer, as they are consumed.
+ */
+class PrefetchingTaskReader<T> {
+  static final int READ_AHEAD_PER_THREAD = 8;
+  private static final long KEEP_ALIVE_SECONDS = 10;
+
+  private final Function<Path, Optional<T>> decoder;
+  private final ThreadPoolExecutor executor;
+  private final int readAhead;
+
+  PrefetchingTaskReader(int threads, Function<Path, Optional<T>> decoder) {
+    this.decoder = decoder;
+    if (threads > 1) {
+      executor =
+          new ThreadPoolExecutor(
+              threads,
+              threads,
+              KEEP_ALIVE_SECONDS,
+              TimeUnit.SECONDS,
+              new LinkedBlockingQueue<>(),
+              new ThreadFactoryBuilder()
+                  .setNameFormat("ReplicationTaskReader-%d")
+                  .setDaemon(true)
+                  .build());
+      executor.allowCoreThreadTimeOut(true);
+      readAhead = threads * READ_AHEAD_PER_THREAD;
+    } else {
+      executor = null;
+      readAhead = 0;
+    }
+  }
+
+  /** Decodes the files, skipping the ones which can't be decoded. Closing it closes the files. */
+  Stream<T> read(Stream<Path> files) {
+    if (executor == null) {
+      return files.map(decoder).filter(Optional::isPresent).map(Optional::get);
+    }
+    Prefetcher prefetcher = new Prefetcher(files.iterator());
+    return StreamSupport.stream(prefetcher, false)
+        .onClose(prefetcher::cancel)
+        .onClose(files::close)
+        .filter(Optional::isPresent)
+        .map(Optional::get);
+  }
+
+  private class Prefetcher extends Spliterators.AbstractSpliterator<Optional<T>> {
+    private final Iterator<Path> files;
+    private final ArrayDeque<Future<Optional<T>>> pending = new ArrayDeque<>();
+
+    Prefetcher(Iterator<Path> files) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.files = files;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Optional<T>> action) {
+      while (pending.size() < readAhead && files.hasNext()) {
+        Path file = files.next();
+        pending.add(executor.submit(() -> decoder.apply(file)));
+      }
+      Future<Optional<T>> next = pending.poll();
+      if (next == null) {
+        return false;
+      }
+      try {
+        action.accept(Uninterruptibles.getUninterruptibly(next));
+      } catch (ExecutionException e) {
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IllegalStateException(e.getCause());
+      }
+      return true;
+    }
+
+    void cancel() {
+      pending.forEach(f -> f.cancel(false));
+      pending.clear();
+    }
+  }
+}
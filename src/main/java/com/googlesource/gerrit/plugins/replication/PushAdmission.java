@@ -0,0 +1,200 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.gerrit.common.Nullable;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.function.IntSupplier;
+
+/**
+ * Limits the number of pushes running at once to all the remotes, each push generating a pack on
+ * the primary.
+ *
+ * <p>Each remote has a budget, which can reserve pushes to the remote, so that the pushes to other
+ * remotes cannot starve it. The pushes beyond the reserved ones share the rest of the global limit.
+ * A push which cannot run waits for a push to finish, the pushes waiting being admitted in the
+ * order they started to wait.
+ */
+@Singleton
+public class PushAdmission {
+  /** A push waiting to be admitted. */
+  interface Waiter {
+    /**
+     * Admits the push, which now holds a running push of its budget.
+     *
+     * @return whether the push is still to run, otherwise its running push is released.
+     */
+    boolean admit();
+  }
+
+  /** The pushes to a remote. */
+  class Budget {
+    private final String name;
+    private int reserved;
+    private int running;
+
+    private Budget(String name, int reserved) {
+      this.name = name;
+      this.reserved = reserved;
+    }
+
+    /** Takes a running push when the budget allows it. */
+    boolean tryAcquire() {
+      synchronized (PushAdmission.this) {
+        return tryAcquireLocked(this);
+      }
+    }
+
+    /**
+     * Takes a running push when the budget allows it, or queues the waiter to be admitted once a
+     * push finishes.
+     *
+     * @return whether the running push is taken, in which case the waiter is not queued.
+     */
+    boolean tryAcquireOrWait(Waiter waiter) {
+      synchronized (PushAdmission.this) {
+        if (tryAcquireLocked(this)) {
+          return true;
+        }
+        waiting.add(new Entry(this, waiter));
+        return false;
+      }
+    }
+
+    /** Releases a running push, admitting the next push waiting, if any. */
+    void release() {
+      Entry next;
+      synchronized (PushAdmission.this) {
+        releaseLocked(this);
+        next = pollAdmissible();
+      }
+      // Admitted outside the lock, as the pushes take their own locks
+      while (next != null && !next.waiter.admit()) {
+        synchronized (PushAdmission.this) {
+          releaseLocked(next.budget);
+          next = pollAdmissible();
+        }
+      }
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  private static class Entry {
+    final Budget budget;
+    final Waiter waiter;
+
+    Entry(Budget budget, Waiter waiter) {
+      this.budget = budget;
+      this.waiter = waiter;
+    }
+  }
+
+  private final IntSupplier limit;
+  private final Deque<Entry> waiting = new ArrayDeque<>();
+  private int reservedTotal;
+  // running pushes beyond the reserved ones of their budget
+  private int shared;
+
+  @Inject
+  PushAdmission(ReplicationConfig replicationConfig) {
+    this(replicationConfig::getMaxConcurrentPushes);
+  }
+
+  @VisibleForTesting
+  PushAdmission(IntSupplier limit) {
+    this.limit = limit;
+  }
+
+  /**
+   * Creates the budget of a remote.
+   *
+   * @param name name of the remote.
+   * @param reserved number of pushes to the remote which are always allowed.
+   * @return the budget, or null when the pushes are not limited.
+   */
+  @Nullable
+  synchronized Budget register(String name, int reserved) {
+    if (limit.getAsInt() <= 0) {
+      return null;
+    }
+    Budget budget = new Budget(name, Math.max(0, reserved));
+    reservedTotal += budget.reserved;
+    return budget;
+  }
+
+  /**
+   * Removes the budget of a remote, whose pushes waiting are dropped. Its running pushes now count
+   * against the shared limit until they are released.
+   */
+  synchronized void unregister(Budget budget) {
+    shared += Math.min(budget.running, budget.reserved);
+    reservedTotal -= budget.reserved;
+    budget.reserved = 0;
+    waiting.removeIf(e -> e.budget == budget);
+  }
+
+  @VisibleForTesting
+  synchronized int getWaiting() {
+    return waiting.size();
+  }
+
+  private boolean tryAcquireLocked(Budget budget) {
+    if (!canAcquire(budget)) {
+      return false;
+    }
+    if (budget.running >= budget.reserved) {
+      shared++;
+    }
+    budget.running++;
+    return true;
+  }
+
+  private boolean canAcquire(Budget budget) {
+    return budget.running < budget.reserved || shared < limit.getAsInt() - reservedTotal;
+  }
+
+  private void releaseLocked(Budget budget) {
+    budget.running--;
+    if (budget.running >= budget.reserved) {
+      shared--;
+    }
+  }
+
+  /** Removes the first waiter which can be admitted, taking its running push. */
+  @Nullable
+  private Entry pollAdmissible() {
+    if (reservedTotal == 0 && shared >= limit.getAsInt()) {
+      return null;
+    }
+    for (Iterator<Entry> i = waiting.iterator(); i.hasNext(); ) {
+      Entry e = i.next();
+      if (tryAcquireLocked(e.budget)) {
+        i.remove();
+        return e;
+      }
+    }
+    return null;
+  }
+}
@@ -127,9 +127,12 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
   private final URIish uri;
   private final Set<ImmutableSet<String>> refBatchesToPush = Sets.newConcurrentHashSet();
   private boolean pushAllRefs;
-  private boolean isCollision;
   private boolean retrying;
+  private volatile boolean priority;
   private int retryCount;
+  @Nullable private Long startReservedAt;
+  @Nullable private volatile PushAdmission.Budget admission;
+  @Nullable private volatile String connectedHost;
   private final int maxRetries;
   private boolean canceled;
   private final ListMultimap<String, ReplicationState> stateMap = LinkedListMultimap.create();
@@ -275,10 +278,87 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
     return maxRetries == 0 || retryCount <= maxRetries;
   }
 
+  /** Whether the push runs on the threads reserved to priority refs of the destination. */
+  boolean isPriority() {
+    return priority;
+  }
+
+  void setPriority(boolean priority) {
+    this.priority = priority;
+  }
+
   int getRetryCount() {
     return retryCount;
   }
 
+  /**
+   * Nanoseconds until the push may start under the push rate of its remote. The start of the push
+   * is reserved the first time, and the reservation is consumed once the push may start.
+   */
+  long reserveStart(TokenBucket starts) {
+    long now = System.nanoTime();
+    if (startReservedAt == null) {
+      startReservedAt = now + starts.reserve(1);
+    }
+    long wait = startReservedAt - now;
+    if (wait <= 0) {
+      startReservedAt = null;
+    }
+    return Math.max(0, wait);
+  }
+
+  /**
+   * Removes the start reserved for the push and not consumed yet, to give it back when the push
+   * will not start.
+   *
+   * @return whether the push had a start reserved.
+   */
+  boolean cancelStartReservation() {
+    boolean reserved = startReservedAt != null;
+    startReservedAt = null;
+    return reserved;
+  }
+
+  /** Records the budget which admitted the push, holding a running push until released. */
+  void setAdmission(PushAdmission.Budget admission) {
+    this.admission = admission;
+  }
+
+  boolean isAdmitted() {
+    return admission != null;
+  }
+
+  /** Removes the budget which admitted the push, to release its running push. */
+  @Nullable
+  PushAdmission.Budget takeAdmission() {
+    PushAdmission.Budget b = admission;
+    admission = null;
+    return b;
+  }
+
+  /** Records the remote host to which the push holds a connection until released. */
+  void setConnectedHost(String host) {
+    this.connectedHost = host;
+  }
+
+  boolean isConnected() {
+    return connectedHost != null;
+  }
+
+  /** Removes the host to which the push holds a connection, to release it. */
+  @Nullable
+  String takeConnectedHost() {
+    String host = connectedHost;
+    connectedHost = null;
+    return host;
+  }
+
+  /** Nanoseconds until the start reserved for the push, 0 when it has none. */
+  long getStartDelayNanos() {
+    Long at = startReservedAt;
+    return at != null ? Math.max(0, at - System.nanoTime()) : 0;
+  }
+
   void retryDone() {
     this.retrying = false;
   }
@@ -298,6 +378,7 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
 
   /** Returns false if all refs were already included in the push, true otherwise */
   boolean addRefBatch(ImmutableSet<String> refBatch) {
+    refBatch = InternedRefs.intern(refBatch);
     if (refBatch.size() == 1 && refBatch.contains(ALL_REFS)) {
       refBatchesToPush.clear();
       boolean pushAllRefsChanged = !pushAllRefs;
@@ -351,7 +432,7 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
 
   void addState(Set<String> refs, ReplicationState state) {
     for (String ref : refs) {
-      stateMap.put(ref, state);
+      stateMap.put(InternedRefs.intern(ref), state);
     }
   }
 
@@ -382,8 +463,13 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
     stateMap.clear();
   }
 
-  private void statesCleanUp() {
-    if (!stateMap.isEmpty() && !isRetrying() && !isCollision) {
+  /**
+   * Notifies the states left of the push as failed, once it is not going to run again.
+   *
+   * @param requeued whether the run re-queued the push, which may then already be running again.
+   */
+  private void statesCleanUp(boolean requeued) {
+    if (!requeued && !stateMap.isEmpty() && !isRetrying()) {
       for (Map.Entry<String, ReplicationState> entry : stateMap.entries()) {
         entry
             .getValue()
@@ -395,57 +481,67 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
 
   @Override
   public void run() {
+    boolean requeued = false;
     try {
-      threadScoper
-          .scope(
-              () -> {
-                runPushOperation();
-                return null;
-              })
-          .call();
+      requeued = threadScoper.scope(this::runPushOperation).call();
     } catch (Exception e) {
       Throwables.throwIfUnchecked(e);
       throw new RuntimeException(e);
     } finally {
-      statesCleanUp();
+      statesCleanUp(requeued);
     }
   }
 
-  private void runPushOperation() {
+  private boolean runPushOperation() {
     try (TraceContext ctx = TraceContext.open().addTag(ID_KEY, HexFormat.fromInt(id))) {
-      doRunPushOperation();
+      return doRunPushOperation();
     }
   }
 
-  private void doRunPushOperation() {
+  /**
+   * @return whether the push was re-queued to run again.
+   */
+  private boolean doRunPushOperation() {
     // Lock the queue, and remove ourselves, so we can't be modified once
     // we start replication (instead a new instance, with the same URI, is
     // created and scheduled for a future point in time.)
     //
     RunwayStatus status = pool.requestRunway(this);
-    isCollision = false;
     if (!status.isAllowed()) {
       if (status.isCanceled()) {
         repLog.atInfo().log(
             "PushOp for replication to %s was canceled and thus won't be rescheduled", uri);
+        return false;
+      } else if (status.isBlocked()) {
+        repLog.atFine().log("Holding replication to %s until its remote is reachable", uri);
+        return pool.reschedule(this, Destination.RetryReason.CIRCUIT_OPEN);
+      } else if (status.isThrottled()) {
+        repLog.atFine().log("Delaying replication to %s to keep its push rate", uri);
+        return pool.reschedule(this, Destination.RetryReason.RATE_LIMITED);
+      } else if (status.isWaiting()) {
+        repLog.atFine().log("Replication to %s waits for a running push to finish", uri);
+        return pool.reschedule(this, Destination.RetryReason.ADMISSION);
+      } else if (status.isHostBusy()) {
+        repLog.atFine().log("Replication to %s waits for a connection to its host", uri);
+        return pool.reschedule(this, Destination.RetryReason.HOST_BUSY);
       } else {
         repLog.atInfo().log(
             "Rescheduling replication to %s to avoid collision with the in-flight push [%s].",
             uri, HexFormat.fromInt(status.getInFlightPushId()));
-        pool.reschedule(this, Destination.RetryReason.COLLISION);
-        isCollision = true;
+        return pool.reschedule(this, Destination.RetryReason.COLLISION);
       }
-      return;
     }
 
     repLog.atInfo().log("Replication to %s started...", uri);
     Timer1.Context<String> destinationContext = metrics.start(config.getName());
+    long startedAt = destinationContext.getStartTime();
+    boolean requeued = false;
     try (Repository git = gitManager.openRepository(projectName)) {
-      long startedAt = destinationContext.getStartTime();
       long delay = NANOSECONDS.toMillis(startedAt - createdAt);
       metrics.record(config.getName(), delay, retryCount);
       runImpl(git);
       long elapsed = NANOSECONDS.toMillis(destinationContext.stop());
+      pool.onPushSucceeded(this, startedAt, elapsed);
 
       if (elapsed > SECONDS.toMillis(pool.getSlowLatencyThreshold())) {
         metrics.recordSlowProjectReplication(
@@ -473,16 +569,17 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
           || msg.contains("no such repository")
           || msg.contains("Git repository not found")
           || msg.contains("unavailable")) {
-        createRepository();
+        requeued = createRepository();
       } else {
         repLog.atSevere().log("Cannot replicate %s; Remote repository error: %s", projectName, msg);
       }
 
     } catch (NoRemoteRepositoryException e) {
-      createRepository();
+      requeued = createRepository();
     } catch (NotSupportedException e) {
       stateLog.error("Cannot replicate to " + uri, e, getStatesAsArray());
     } catch (TransportException e) {
+      pool.onPushFailed(this, startedAt);
       if (e instanceof UpdateRefFailureException) {
         updateRefRetryCount++;
         repLog.atSevere().log("Cannot replicate to %s due to a lock or write ref failure", uri);
@@ -492,7 +589,7 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
           if (canceledWhileRunning.get()) {
             logCanceledWhileRunningException(e);
           } else {
-            pool.reschedule(this, Destination.RetryReason.TRANSPORT_ERROR);
+            requeued = pool.reschedule(this, Destination.RetryReason.TRANSPORT_ERROR);
           }
         } else {
           retryDone();
@@ -506,7 +603,7 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
         } else {
           repLog.atSevere().withCause(e).log("Cannot replicate to %s", uri);
           // The remote push operation should be retried.
-          pool.reschedule(this, Destination.RetryReason.TRANSPORT_ERROR);
+          requeued = pool.reschedule(this, Destination.RetryReason.TRANSPORT_ERROR);
         }
       }
     } catch (IOException e) {
@@ -516,13 +613,17 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
     } finally {
       pool.notifyFinished(this);
     }
+    return requeued;
   }
 
   private void logCanceledWhileRunningException(TransportException e) {
     repLog.atInfo().withCause(e).log("Cannot replicate to %s. It was canceled while running", uri);
   }
 
-  private void createRepository() {
+  /**
+   * @return whether the push was re-queued to replicate to the repository created.
+   */
+  private boolean createRepository() {
     if (pool.isCreateMissingRepos()) {
       try {
         try (Repository git = gitManager.openRepository(projectName)) {
@@ -530,11 +631,10 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
 
           if (createProject(projectName, head != null ? getName(head) : null)) {
             repLog.atWarning().log("Missing repository created; retry replication to %s", uri);
-            pool.reschedule(this, Destination.RetryReason.REPOSITORY_MISSING);
-          } else {
-            repLog.atWarning().log(
-                "Missing repository could not be created when replicating %s", uri);
+            return pool.reschedule(this, Destination.RetryReason.REPOSITORY_MISSING);
           }
+          repLog.atWarning().log(
+              "Missing repository could not be created when replicating %s", uri);
         }
       } catch (IOException ioe) {
         stateLog.error(
@@ -545,6 +645,7 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
     } else {
       stateLog.error("Cannot replicate to " + uri + "; repository not found", getStatesAsArray());
     }
+    return false;
   }
 
   private boolean createProject(Project.NameKey project, String head) {
@@ -570,6 +671,10 @@ class PushOne implements ProjectRunnable, CanceledWhileRunning, UriUpdates {
   private PushResult pushVia(Repository git, Transport tn)
       throws IOException, PermissionBackendException {
     tn.applyConfig(config);
+    TokenBucket bytes = pool.getTransferRateLimit();
+    if (bytes != null && !TransportThrottle.apply(tn, bytes)) {
+      repLog.atFine().log("The transfer rate of pushes to %s cannot be limited", uri);
+    }
     setUploadAndReceivePack(tn);
     tn.setCredentialsProvider(credentialsFactory.create(config.getName()));
 
@@ -0,0 +1,151 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Compact binary encoding of a {@link ReplicateRefUpdate}:
+ *
+ * <p><code>
+ *   'R' 'U' version | string project | string uri | string remote | varint count | string ref...
+ * </code>
+ *
+ * <p>where each string is its varint length followed by its UTF-8 bytes. The magic header can't be
+ * mistaken for the start of a JSON encoded task, so both encodings can be told apart when reading.
+ * The decoded ref names are interned, as the same ref names are found in many tasks.
+ */
+final class ReplicateRefUpdateCodec {
+  static final int VERSION = 1;
+
+  private static final byte[] MAGIC = {'R', 'U'};
+
+  /** Whether the bytes hold a binary encoded task, rather than a JSON one. */
+  static boolean isBinary(byte[] bytes) {
+    return bytes.length > MAGIC.length && bytes[0] == MAGIC[0] && bytes[1] == MAGIC[1];
+  }
+
+  static byte[] encode(ReplicateRefUpdate update) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+    out.write(MAGIC, 0, MAGIC.length);
+    out.write(VERSION);
+    writeString(out, update.project());
+    writeString(out, update.uri());
+    writeString(out, update.remote());
+    writeVarInt(out, update.refs().size());
+    for (String ref : update.refs()) {
+      writeString(out, ref);
+    }
+    return out.toByteArray();
+  }
+
+  static ReplicateRefUpdate decode(byte[] bytes, String key) throws IOException {
+    if (!isBinary(bytes)) {
+      throw new IOException("Not a binary encoded task");
+    }
+    ByteBuffer in = ByteBuffer.wrap(bytes, MAGIC.length, bytes.length - MAGIC.length);
+    try {
+      int version = in.get() & 0xff;
+      if (version != VERSION) {
+        throw new IOException(String.format("Unsupported task encoding version %d", version));
+      }
+      String project = readString(in);
+      String uri = readString(in);
+      String remote = readString(in);
+      int count = readVarInt(in);
+      ImmutableSet.Builder<String> refs = ImmutableSet.builderWithExpectedSize(count);
+      for (int i = 0; i < count; i++) {
+        refs.add(InternedRefs.intern(readString(in)));
+      }
+      return ReplicateRefUpdate.create(project, refs.build(), uri, remote, key);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated or corrupt binary encoded task", e);
+    }
+  }
+
+  /**
+   * Computes the key of a task, which is the SHA-1 of {@code project + "\n" + refs + "\n" + uri +
+   * "\n" + remote} with the refs formatted as by {@link Set#toString()}, feeding the parts to the
+   * hash one by one instead of building that string.
+   */
+  @SuppressWarnings("deprecation")
+  static String key(String project, Set<String> refs, String uri, String remote) {
+    Hasher h = Hashing.sha1().newHasher();
+    h.putString(project, UTF_8).putByte((byte) '\n').putByte((byte) '[');
+    boolean first = true;
+    for (String ref : refs) {
+      if (!first) {
+        h.putByte((byte) ',').putByte((byte) ' ');
+      }
+      h.putString(ref, UTF_8);
+      first = false;
+    }
+    h.putByte((byte) ']').putByte((byte) '\n');
+    h.putString(uri, UTF_8).putByte((byte) '\n').putString(remote, UTF_8);
+    return ObjectId.fromRaw(h.hash().asBytes()).name();
+  }
+
+  private static void writeString(ByteArrayOutputStream out, String s) {
+    byte[] bytes = s.getBytes(UTF_8);
+    writeVarInt(out, bytes.length);
+    out.write(bytes, 0, bytes.length);
+  }
+
+  private static String readString(ByteBuffer in) throws IOException {
+    int length = readVarInt(in);
+    if (length > in.remaining()) {
+      throw new IOException(String.format("Invalid string length %d", length));
+    }
+    String s = new String(in.array(), in.arrayOffset() + in.position(), length, UTF_8);
+    in.position(in.position() + length);
+    return s;
+  }
+
+  private static void writeVarInt(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarInt(ByteBuffer in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 32; shift += 7) {
+      int b = in.get() & 0xff;
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        if (value < 0) {
+          throw new IOException("Invalid negative length");
+        }
+        return value;
+      }
+    }
+    throw new IOException("Invalid varint");
+  }
+
+  private ReplicateRefUpdateCodec() {}
+}
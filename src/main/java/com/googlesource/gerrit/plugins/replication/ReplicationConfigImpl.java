@@ -46,6 +46,8 @@ public class ReplicationConfigImpl implements ReplicationConfig {
   private final Duration autoRepairInterval;
   private final int autoRepairMaxAttempts;
   private final int autoRepairConcurrencyLimit;
+  private final int maxConcurrentPushes;
+  private final int maxConnectionsPerHost;
   private final Path pluginDataDir;
   private final Config config;
 
@@ -88,6 +90,9 @@ public class ReplicationConfigImpl implements ReplicationConfig {
                 "replication",
                 "autoRepairConcurrencyLimit",
                 DEFAULT_AUTO_REPAIR_CONCURRENCY_LIMIT));
+    this.maxConcurrentPushes = Math.max(0, config.getInt("replication", "maxConcurrentPushes", 0));
+    this.maxConnectionsPerHost =
+        Math.max(0, config.getInt("replication", "maxConnectionsPerHost", 0));
     this.pluginDataDir = pluginDataDir;
     this.useLegacyCredentials = config.getBoolean("gerrit", "useLegacyCredentials", false);
   }
@@ -192,4 +197,14 @@ public class ReplicationConfigImpl implements ReplicationConfig {
   public int getAutoRepairConcurrencyLimit() {
     return autoRepairConcurrencyLimit;
   }
+
+  @Override
+  public int getMaxConcurrentPushes() {
+    return maxConcurrentPushes;
+  }
+
+  @Override
+  public int getMaxConnectionsPerHost() {
+    return maxConnectionsPerHost;
+  }
 }
@@ -14,7 +14,11 @@
 
 package com.googlesource.gerrit.plugins.replication;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Counter0;
 import com.google.gerrit.metrics.Description;
 import com.google.gerrit.metrics.Field;
 import com.google.gerrit.metrics.Histogram1;
@@ -23,17 +27,29 @@ import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.metrics.Timer1;
 import com.google.gerrit.server.logging.PluginMetadata;
 import com.google.inject.Inject;
+import com.google.inject.Provider;
 import com.google.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 @Singleton
 public class ReplicationMetrics {
   private final Timer1<String> executionTime;
   private final Histogram1<String> executionDelay;
+  private final Histogram1<String> scheduledDelay;
   private final Histogram1<String> executionRetries;
   private final Histogram3<Integer, String, String> slowProjectReplicationLatency;
+  private final Timer1<String> taskStorageLatency;
+  private final Counter0 quarantinedTasks;
+  private final Map<String, Integer> concurrencyLimits = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> pushRateLimits = new ConcurrentHashMap<>();
+  private final Map<String, TokenBucket> transferRateLimits = new ConcurrentHashMap<>();
 
   @Inject
-  ReplicationMetrics(@PluginName String pluginName, MetricMaker metricMaker) {
+  ReplicationMetrics(
+      @PluginName String pluginName,
+      MetricMaker metricMaker,
+      Provider<ReplicationTasksStorage> tasksStorage) {
     Field<String> DEST_FIELD =
         Field.ofString(
                 "destination",
@@ -52,6 +68,24 @@ public class ReplicationMetrics {
                         .addPluginMetadata(PluginMetadata.create("project", fieldValue)))
             .build();
 
+    Field<String> REMOTE_FIELD =
+        Field.ofString(
+                "remote",
+                (metadataBuilder, fieldValue) ->
+                    metadataBuilder
+                        .pluginName(pluginName)
+                        .addPluginMetadata(PluginMetadata.create("remote", fieldValue)))
+            .build();
+
+    Field<String> OPERATION_FIELD =
+        Field.ofString(
+                "operation",
+                (metadataBuilder, fieldValue) ->
+                    metadataBuilder
+                        .pluginName(pluginName)
+                        .addPluginMetadata(PluginMetadata.create("operation", fieldValue)))
+            .build();
+
     Field<Integer> SLOW_THRESHOLD_FIELD =
         Field.ofInteger(
                 "slow_threshold",
@@ -78,6 +112,14 @@ public class ReplicationMetrics {
                 .setUnit(Description.Units.MILLISECONDS),
             DEST_FIELD);
 
+    scheduledDelay =
+        metricMaker.newHistogram(
+            "scheduled_replication_delay",
+            new Description("Delay chosen when scheduling a push to remote destination")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS),
+            DEST_FIELD);
+
     executionRetries =
         metricMaker.newHistogram(
             "replication_retries",
@@ -96,6 +138,126 @@ public class ReplicationMetrics {
             SLOW_THRESHOLD_FIELD,
             PROJECT_FIELD,
             DEST_FIELD);
+
+    taskStorageLatency =
+        metricMaker.newTimer(
+            "task_storage_latency",
+            new Description("Time spent by an operation of the persisted replication tasks storage")
+                .setCumulative()
+                .setUnit(Description.Units.MILLISECONDS),
+            OPERATION_FIELD);
+
+    quarantinedTasks =
+        metricMaker.newCounter(
+            "tasks_quarantined",
+            new Description("Number of persisted replication tasks quarantined as unreadable")
+                .setRate()
+                .setUnit("tasks"));
+
+    CallbackMetric1<String, Long> waitingTasks =
+        metricMaker.newCallbackMetric(
+            "tasks_waiting",
+            Long.class,
+            new Description("Number of persisted replication tasks waiting to be pushed to remote")
+                .setGauge()
+                .setUnit("tasks"),
+            REMOTE_FIELD);
+
+    CallbackMetric1<String, Long> runningTasks =
+        metricMaker.newCallbackMetric(
+            "tasks_running",
+            Long.class,
+            new Description("Number of persisted replication tasks being pushed to remote")
+                .setGauge()
+                .setUnit("tasks"),
+            REMOTE_FIELD);
+
+    CallbackMetric1<String, Long> buildingTasks =
+        metricMaker.newCallbackMetric(
+            "tasks_building",
+            Long.class,
+            new Description("Number of replication tasks for remote being persisted")
+                .setGauge()
+                .setUnit("tasks"),
+            REMOTE_FIELD);
+
+    CallbackMetric1<String, Long> oldestWaitingTaskAge =
+        metricMaker.newCallbackMetric(
+            "oldest_waiting_task_age",
+            Long.class,
+            new Description("Age of the oldest persisted replication task waiting for remote")
+                .setGauge()
+                .setUnit(Description.Units.MILLISECONDS),
+            REMOTE_FIELD);
+
+    CallbackMetric1<String, Integer> concurrencyLimit =
+        metricMaker.newCallbackMetric(
+            "push_concurrency_limit",
+            Integer.class,
+            new Description("Number of concurrent pushes to remote destination allowed by its load")
+                .setGauge()
+                .setUnit("pushes"),
+            DEST_FIELD);
+
+    metricMaker.newTrigger(
+        concurrencyLimit,
+        () -> {
+          concurrencyLimits.forEach(concurrencyLimit::set);
+          concurrencyLimit.prune();
+        });
+
+    CallbackMetric1<String, Long> pushRateTokens =
+        metricMaker.newCallbackMetric(
+            "push_rate_tokens",
+            Long.class,
+            new Description(
+                    "Number of pushes to remote destination which can start without exceeding its"
+                        + " push rate, negative while pushes wait for it")
+                .setGauge()
+                .setUnit("pushes"),
+            DEST_FIELD);
+
+    CallbackMetric1<String, Long> transferRateTokens =
+        metricMaker.newCallbackMetric(
+            "transfer_rate_tokens",
+            Long.class,
+            new Description(
+                    "Number of bytes which can be sent to remote destination without exceeding its"
+                        + " transfer rate, negative while pushes wait for it")
+                .setGauge()
+                .setUnit(Description.Units.BYTES),
+            DEST_FIELD);
+
+    metricMaker.newTrigger(
+        ImmutableSet.of(pushRateTokens, transferRateTokens),
+        () -> {
+          pushRateLimits.forEach((name, bucket) -> pushRateTokens.set(name, bucket.available()));
+          pushRateTokens.prune();
+          transferRateLimits.forEach(
+              (name, bucket) -> transferRateTokens.set(name, bucket.available()));
+          transferRateTokens.prune();
+        });
+
+    metricMaker.newTrigger(
+        ImmutableSet.of(waitingTasks, runningTasks, buildingTasks, oldestWaitingTaskAge),
+        () -> {
+          long now = System.currentTimeMillis();
+          tasksStorage
+              .get()
+              .getTaskStats()
+              .forEach(
+                  (remote, stats) -> {
+                    waitingTasks.set(remote, stats.waiting());
+                    runningTasks.set(remote, stats.running());
+                    buildingTasks.set(remote, stats.building());
+                    oldestWaitingTaskAge.set(
+                        remote, stats.waiting() == 0 ? 0L : now - stats.oldestWaiting());
+                  });
+          waitingTasks.prune();
+          runningTasks.prune();
+          buildingTasks.prune();
+          oldestWaitingTaskAge.prune();
+        });
   }
 
   /**
@@ -120,6 +282,51 @@ public class ReplicationMetrics {
     executionRetries.record(name, retries);
   }
 
+  /**
+   * Record the delay chosen when scheduling a push to a destination.
+   *
+   * @param name the destination name.
+   * @param delay scheduled delay in milliseconds.
+   */
+  void recordScheduledDelay(String name, long delay) {
+    scheduledDelay.record(name, delay);
+  }
+
+  /**
+   * Record the number of concurrent pushes allowed to a destination.
+   *
+   * @param name the destination name.
+   * @param limit number of concurrent pushes, or 0 to stop reporting it.
+   */
+  void recordConcurrencyLimit(String name, int limit) {
+    if (limit > 0) {
+      concurrencyLimits.put(name, limit);
+    } else {
+      concurrencyLimits.remove(name);
+    }
+  }
+
+  /**
+   * Register the rate limits of a destination, whose tokens are reported.
+   *
+   * @param name the destination name.
+   * @param pushes limit of the pushes started, or null to stop reporting it.
+   * @param bytes limit of the bytes sent, or null to stop reporting it.
+   */
+  void registerRateLimits(String name, @Nullable TokenBucket pushes, @Nullable TokenBucket bytes) {
+    register(pushRateLimits, name, pushes);
+    register(transferRateLimits, name, bytes);
+  }
+
+  private static void register(
+      Map<String, TokenBucket> limits, String name, @Nullable TokenBucket bucket) {
+    if (bucket != null) {
+      limits.put(name, bucket);
+    } else {
+      limits.remove(name);
+    }
+  }
+
   /**
    * Record replication latency for project to destination, where latency was slower than threshold
    *
@@ -132,4 +339,23 @@ public class ReplicationMetrics {
       String destinationName, String projectName, Integer slowThreshold, long latency) {
     slowProjectReplicationLatency.record(slowThreshold, destinationName, projectName, latency);
   }
+
+  /**
+   * Start the latency timer for an operation of the replication tasks storage.
+   *
+   * @param operation the operation name.
+   * @return the timer context.
+   */
+  Timer1.Context<String> startTaskStorageOperation(String operation) {
+    return taskStorageLatency.start(operation);
+  }
+
+  /**
+   * Record persisted replication tasks moved to quarantine.
+   *
+   * @param count number of quarantined tasks.
+   */
+  void recordQuarantinedTasks(long count) {
+    quarantinedTasks.incrementBy(count);
+  }
 }
@@ -17,6 +17,7 @@ package com.googlesource.gerrit.plugins.replication;
 import static com.googlesource.gerrit.plugins.replication.StartReplicationCapability.START_REPLICATION;
 
 import com.google.common.eventbus.EventBus;
+import com.google.common.flogger.FluentLogger;
 import com.google.gerrit.extensions.annotations.Exports;
 import com.google.gerrit.extensions.config.CapabilityDefinition;
 import com.google.gerrit.extensions.events.GitBatchRefUpdateListener;
@@ -44,9 +45,11 @@ import com.googlesource.gerrit.plugins.replication.events.dispatcher.EventDispat
 import com.googlesource.gerrit.plugins.replication.events.dispatcher.ForwardingEventDispatcher;
 import com.googlesource.gerrit.plugins.replication.events.dispatcher.NoopEventDispatcher;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.transport.SshSessionFactory;
 
 class ReplicationModule extends AbstractModule {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
   private final ReplicationConfigModule configModule;
 
@@ -59,6 +62,7 @@ class ReplicationModule extends AbstractModule {
   protected void configure() {
     install(configModule);
     bindEventDispatcher();
+    bindTasksStorage();
     bind(ObservableQueue.class).to(ReplicationQueue.class);
     bind(LifecycleListener.class)
         .annotatedWith(UniqueAnnotations.create())
@@ -127,4 +131,32 @@ class ReplicationModule extends AbstractModule {
       bind(EventDispatcher.class).to(NoopEventDispatcher.class).in(Scopes.SINGLETON);
     }
   }
+
+  private void bindTasksStorage() {
+    Config config = configModule.getReplicationConfig();
+    String taskStorage = config.getString("replication", null, "taskStorage");
+    if ("journal".equalsIgnoreCase(taskStorage)) {
+      if (config.getInt("replication", "distributionInterval", 0) != 0) {
+        logger.atWarning().log(
+            "replication.taskStorage = journal cannot be used with"
+                + " replication.distributionInterval, using the file based task storage");
+        return;
+      }
+      bind(ReplicationTasksStorage.class).to(JournalReplicationTasksStorage.class);
+      bind(LifecycleListener.class)
+          .annotatedWith(UniqueAnnotations.create())
+          .to(JournalReplicationTasksStorage.class);
+    } else if ("memory".equalsIgnoreCase(taskStorage)) {
+      if (config.getInt("replication", "distributionInterval", 0) != 0) {
+        logger.atWarning().log(
+            "replication.taskStorage = memory cannot be used with"
+                + " replication.distributionInterval, using the file based task storage");
+        return;
+      }
+      bind(ReplicationTasksStorage.class).to(DelegatingReplicationTasksStorage.class);
+    } else if (taskStorage != null && !"file".equalsIgnoreCase(taskStorage)) {
+      logger.atWarning().log(
+          "Unknown replication.taskStorage %s, using the file based task storage", taskStorage);
+    }
+  }
 }
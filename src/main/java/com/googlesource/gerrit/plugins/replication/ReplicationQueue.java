@@ -14,6 +14,8 @@
 
 package com.googlesource.gerrit.plugins.replication;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 import com.google.auto.value.AutoValue;
@@ -25,6 +27,7 @@ import com.google.gerrit.extensions.events.GitBatchRefUpdateListener;
 import com.google.gerrit.extensions.events.HeadUpdatedListener;
 import com.google.gerrit.extensions.events.LifecycleListener;
 import com.google.gerrit.extensions.events.ProjectDeletedListener;
+import com.google.gerrit.server.config.ConfigUtil;
 import com.google.gerrit.server.extensions.events.GitReferenceUpdated;
 import com.google.gerrit.server.git.WorkQueue;
 import com.google.gerrit.util.logging.NamedFluentLogger;
@@ -37,8 +40,10 @@ import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig.FilterT
 import com.googlesource.gerrit.plugins.replication.events.ProjectDeletionState;
 import com.googlesource.gerrit.plugins.replication.events.dispatcher.EventDispatcher;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Queue;
@@ -48,6 +53,7 @@ import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.transport.URIish;
 
 /** Manages automatic replication to remote repositories. */
@@ -59,6 +65,8 @@ public class ReplicationQueue
         HeadUpdatedListener {
   static final String REPLICATION_LOG_NAME = "replication_log";
   static final NamedFluentLogger repLog = NamedFluentLogger.forName(REPLICATION_LOG_NAME);
+  static final int DEFAULT_MAX_REFS_IN_COMPACTED_TASK = 1000;
+  static final long DEFAULT_BUILDING_TASK_MAX_AGE_MS = MINUTES.toMillis(10);
 
   private final ReplicationStateListener stateLog;
 
@@ -102,9 +110,11 @@ public class ReplicationQueue
     if (!running) {
       destinations.get().startup(workQueue);
       running = true;
+      scanTasks();
       Set<String> pushEnabledRemoteNames = getPushEnabledRemoteNames();
       if (!pushEnabledRemoteNames.isEmpty()) {
-        replicationTasksStorage.recoverAll(r -> pushEnabledRemoteNames.contains(r.remote()));
+        replicationTasksStorage.recoverAll(pushEnabledRemoteNames);
+        compactWaitingTasks(pushEnabledRemoteNames);
         synchronizePendingEvents(Prune.FALSE);
       }
       fireBeforeStartupEvents();
@@ -153,6 +163,45 @@ public class ReplicationQueue
     fire(event.getProjectName(), event.getUpdatedRefs());
   }
 
+  private void scanTasks() {
+    Config cfg = replConfig.getConfig();
+    if (cfg.getBoolean("replication", "scanTasksOnStartup", true)) {
+      ReplicationTasksScanner.Result result =
+          replicationTasksStorage.scan(
+              ConfigUtil.getTimeUnit(
+                  cfg,
+                  "replication",
+                  null,
+                  "buildingTaskMaxAge",
+                  DEFAULT_BUILDING_TASK_MAX_AGE_MS,
+                  MILLISECONDS));
+      if (!result.isClean()) {
+        repLog.atWarning().log(
+            "Removed %d orphaned and %d duplicate replication tasks, quarantined %d unreadable"
+                + " ones",
+            result.orphansRemoved(), result.duplicatesResolved(), result.quarantined());
+      }
+    }
+  }
+
+  /**
+   * Merges the waiting tasks before replaying them, while no push holds them yet. Tasks shared with
+   * other primaries could be held by their pending pushes, so this must be enabled explicitly.
+   */
+  private void compactWaitingTasks(Set<String> remoteNames) {
+    Config cfg = replConfig.getConfig();
+    if (cfg.getBoolean("replication", "compactWaitingTasks", false)) {
+      int removed =
+          replicationTasksStorage.compactWaiting(
+              remoteNames,
+              cfg.getInt(
+                  "replication", "maxRefsInCompactedTask", DEFAULT_MAX_REFS_IN_COMPACTED_TASK));
+      if (removed > 0) {
+        repLog.atInfo().log("Compacted %d waiting replication tasks", removed);
+      }
+    }
+  }
+
   private Set<String> getPushEnabledRemoteNames() {
     return destinations.get().getAll(FilterType.ALL).stream()
         .filter(Destination::isPushEnabled)
@@ -190,17 +239,19 @@ public class ReplicationQueue
       return;
     }
 
+    List<Destination> toPush = new ArrayList<>();
     for (Destination cfg : destinations.get().getAll(FilterType.ALL)) {
       if (remotesToConsider.isEmpty() || remotesToConsider.contains(cfg.getRemoteConfigName())) {
-        pushReferences(
-            cfg,
-            project,
-            urlMatch,
-            updatedRefs.stream().map(UpdatedRef::getRefName).collect(Collectors.toSet()),
-            state,
-            now);
+        toPush.add(cfg);
       }
     }
+    pushReferences(
+        toPush,
+        project,
+        urlMatch,
+        updatedRefs.stream().map(UpdatedRef::getRefName).collect(Collectors.toSet()),
+        state,
+        now);
   }
 
   private void fireFromStorage(URIish uri, Project.NameKey project, ImmutableSet<String> refNames) {
@@ -213,38 +264,47 @@ public class ReplicationQueue
 
   @UsedAt(UsedAt.Project.COLLABNET)
   public void pushReference(Destination cfg, Project.NameKey project, String refName) {
-    pushReferences(cfg, project, null, Set.of(refName), null, true);
+    pushReferences(List.of(cfg), project, null, Set.of(refName), null, true);
   }
 
+  /**
+   * Persists the tasks for all the destinations and URIs in a single group commit before scheduling
+   * any of them, so that a push never starts before its task is stored.
+   */
   private void pushReferences(
-      Destination cfg,
+      List<Destination> cfgs,
       Project.NameKey project,
       String urlMatch,
       Set<String> refNames,
       ReplicationState state,
       boolean now) {
     boolean withoutState = state == null;
-    if (withoutState) {
-      state = new ReplicationState(new GitUpdateProcessing(dispatcher));
-    }
-    Set<String> refNamesToPush = new HashSet<>();
-    for (String refName : refNames) {
-      if (cfg.wouldPushProject(project) && cfg.wouldPushRef(refName)) {
-        refNamesToPush.add(refName);
-      } else {
-        repLog.atFine().log("Skipping ref %s on project %s", refName, project.get());
+    ReplicationState pushState =
+        withoutState ? new ReplicationState(new GitUpdateProcessing(dispatcher)) : state;
+    ReplicationTasksStorage.Batch tasks = replicationTasksStorage.newBatch();
+    List<Runnable> pushes = new ArrayList<>();
+    for (Destination cfg : cfgs) {
+      Set<String> refNamesToPush = new HashSet<>();
+      for (String refName : refNames) {
+        if (cfg.wouldPushProject(project) && cfg.wouldPushRef(refName)) {
+          refNamesToPush.add(refName);
+        } else {
+          repLog.atFine().log("Skipping ref %s on project %s", refName, project.get());
+        }
       }
-    }
-    if (!refNamesToPush.isEmpty()) {
-      for (URIish uri : cfg.getDistributedUris(project, urlMatch)) {
-        replicationTasksStorage.create(
-            ReplicateRefUpdate.create(
-                project.get(), refNamesToPush, uri, cfg.getRemoteConfigName()));
-        cfg.schedule(project, refNamesToPush, uri, state, now);
+      if (!refNamesToPush.isEmpty()) {
+        for (URIish uri : cfg.getDistributedUris(project, urlMatch)) {
+          tasks.create(
+              ReplicateRefUpdate.create(
+                  project.get(), refNamesToPush, uri, cfg.getRemoteConfigName()));
+          pushes.add(() -> cfg.schedule(project, refNamesToPush, uri, pushState, now));
+        }
       }
     }
+    tasks.commit();
+    pushes.forEach(Runnable::run);
     if (withoutState) {
-      state.markAllPushTasksScheduled();
+      pushState.markAllPushTasksScheduled();
     }
   }
 
@@ -264,7 +324,7 @@ public class ReplicationQueue
       }
       new ChainedScheduler.StreamScheduler<>(
           workQueue.getDefaultQueue(),
-          replicationTasksStorage.streamWaiting(),
+          replicationTasksStorage.streamWaiting(getPushEnabledRemoteNames()),
           new ChainedScheduler.Runner<ReplicationTasksStorage.ReplicateRefUpdate>() {
             @Override
             public void run(ReplicationTasksStorage.ReplicateRefUpdate u) {
@@ -317,6 +377,9 @@ public class ReplicationQueue
         }
       }
     }
+    for (Destination destination : destinations.get().getAll(FilterType.ALL)) {
+      destination.cancelDelayedPushes(prunableTaskNames);
+    }
   }
 
   @Override
@@ -371,6 +434,8 @@ public class ReplicationQueue
   protected class Distributor implements WorkQueue.CancelableRunnable {
     public ScheduledThreadPoolExecutor executor;
     public ScheduledFuture<?> future;
+    public ScheduledThreadPoolExecutor leaseExecutor;
+    public ScheduledFuture<?> leaseRenewal;
 
     public Distributor(WorkQueue wq) {
       int distributionInterval = replConfig.getDistributionInterval();
@@ -380,6 +445,17 @@ public class ReplicationQueue
             executor.scheduleWithFixedDelay(
                 this, distributionInterval, distributionInterval, SECONDS);
       }
+      long renewalInterval = replicationTasksStorage.getLeaseRenewalIntervalMillis();
+      if (renewalInterval > 0) {
+        // Not queued behind the distribution, which can take longer than a lease
+        leaseExecutor = wq.createQueue(1, "Replication Lease Renewal", false);
+        leaseRenewal =
+            leaseExecutor.scheduleAtFixedRate(
+                replicationTasksStorage::renewLeases,
+                renewalInterval,
+                renewalInterval,
+                MILLISECONDS);
+      }
     }
 
     @Override
@@ -388,6 +464,8 @@ public class ReplicationQueue
         return;
       }
       try {
+        replicationTasksStorage.reconcileIndex();
+        replicationTasksStorage.reclaimExpiredLeases();
         synchronizePendingEvents(Prune.TRUE);
       } catch (Exception e) {
         repLog.atSevere().withCause(e).log("error distributing tasks");
@@ -404,6 +482,9 @@ public class ReplicationQueue
         cancel();
         executor.getQueue().remove(this);
       }
+      if (leaseRenewal != null) {
+        leaseRenewal.cancel(true);
+      }
     }
 
     @Override
@@ -0,0 +1,560 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Durability;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdateTypeAdapterFactory;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Transition;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A segmented, append-only journal of replication task state transitions with an in-memory index of
+ * the live tasks.
+ *
+ * <p>Each state transition of a task is appended as a record to the current segment:
+ *
+ * <p><code>
+ *   int length | byte op | UTF key | int payload length | payload | int crc32
+ * </code>
+ *
+ * <p>where the CRC covers everything from the op to the end of the payload. Only CREATE records
+ * carry a payload, the task in any of the {@link ReplicationTasksStorage.TaskEncoding}s. The
+ * records of a group commit are appended with a single write and, unless the durability is {@link
+ * Durability#BUFFERED}, forced to disk once. Once the current segment reaches the configured size a
+ * new one is started. When the segments mostly contain records of tasks which are no longer live,
+ * the live tasks are written to a new snapshot segment, which starts with a SNAPSHOT record, and
+ * all the older segments are deleted.
+ *
+ * <p>On startup the segments are replayed in order to rebuild the index. A torn record at the end
+ * of the last segment, as left by a crash in the middle of an append, is truncated.
+ */
+class ReplicationTasksJournal {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final Pattern SEGMENT = Pattern.compile("segment-(\\d+)\\.log");
+  private static final int MAX_RECORD_LENGTH = 64 * 1024 * 1024;
+
+  enum Op {
+    SNAPSHOT,
+    CREATE,
+    START,
+    RESET,
+    FINISH;
+
+    static Op fromCode(int code) throws IOException {
+      Op[] ops = values();
+      if (code < 0 || code >= ops.length) {
+        throw new IOException(String.format("Unknown journal record type %d", code));
+      }
+      return ops[code];
+    }
+  }
+
+  /** Writes records to a segment. */
+  @VisibleForTesting
+  interface SegmentWriter {
+    void write(FileChannel channel, byte[] bytes) throws IOException;
+  }
+
+  private static class Entry {
+    final ReplicateRefUpdate update;
+    final long created;
+    boolean waiting;
+    boolean running;
+
+    Entry(ReplicateRefUpdate update, long created) {
+      this.update = update;
+      this.created = created;
+    }
+
+    static Entry copyOf(@Nullable Entry e, ReplicateRefUpdate update) {
+      if (e == null) {
+        return new Entry(update, System.currentTimeMillis());
+      }
+      Entry copy = new Entry(e.update, e.created);
+      copy.waiting = e.waiting;
+      copy.running = e.running;
+      return copy;
+    }
+
+    boolean isLive() {
+      return waiting || running;
+    }
+
+    /** Applies the transition, returns false if it does not apply to the current state. */
+    boolean apply(Op op) {
+      switch (op) {
+        case CREATE:
+          waiting = true;
+          return true;
+        case START:
+          if (waiting) {
+            waiting = false;
+            running = true;
+            return true;
+          }
+          return false;
+        case RESET:
+          if (running) {
+            running = false;
+            waiting = true;
+            return true;
+          }
+          return false;
+        case FINISH:
+          if (running) {
+            running = false;
+            return true;
+          }
+          return false;
+        case SNAPSHOT:
+        default:
+          return false;
+      }
+    }
+  }
+
+  private final Path dir;
+  private final long segmentSize;
+  private final Durability durability;
+  private final Function<ReplicateRefUpdate, byte[]> encoder;
+  private final Gson gson;
+  private final SegmentWriter writer;
+  private final Map<String, Entry> index = new LinkedHashMap<>();
+
+  private FileChannel current;
+  private long currentSeq;
+  private long recordsSinceSnapshot;
+  private boolean closed;
+
+  ReplicationTasksJournal(
+      Path dir,
+      long segmentSize,
+      Durability durability,
+      Function<ReplicateRefUpdate, byte[]> encoder)
+      throws IOException {
+    this(dir, segmentSize, durability, encoder, ReplicationTasksJournal::write);
+  }
+
+  @VisibleForTesting
+  ReplicationTasksJournal(
+      Path dir,
+      long segmentSize,
+      Durability durability,
+      Function<ReplicateRefUpdate, byte[]> encoder,
+      SegmentWriter writer)
+      throws IOException {
+    this.dir = Files.createDirectories(dir);
+    this.segmentSize = segmentSize;
+    this.durability = durability;
+    this.encoder = encoder;
+    this.writer = writer;
+    gson =
+        new GsonBuilder()
+            .registerTypeAdapterFactory(new ReplicateRefUpdateTypeAdapterFactory())
+            .create();
+    open();
+  }
+
+  /**
+   * Appends the records of the transitions which apply to the current state of their task with a
+   * single write, and then applies them to the index.
+   *
+   * @return the tasks for which the transition could be applied.
+   */
+  public synchronized Set<ReplicateRefUpdate> commit(List<Transition> transitions) {
+    Map<String, Entry> staged = new LinkedHashMap<>();
+    Set<ReplicateRefUpdate> applied = new HashSet<>();
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    int count = 0;
+    try {
+      for (Transition t : transitions) {
+        String key = t.update().sha1();
+        Entry e = staged.computeIfAbsent(key, k -> Entry.copyOf(index.get(k), t.update()));
+        Op op = Op.valueOf(t.op().name());
+        if (op == Op.CREATE && e.waiting) {
+          applied.add(t.update());
+          continue;
+        }
+        if (!e.apply(op)) {
+          logger.atSevere().log(
+              "Error while applying %s to task %s (waiting: %s, running: %s)",
+              op, key, e.waiting, e.running);
+          continue;
+        }
+        encode(records, op, key, op == Op.CREATE ? t.update() : null);
+        count++;
+        applied.add(t.update());
+      }
+      if (count > 0) {
+        append(records.toByteArray(), count);
+      }
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Error while appending %d task transitions", count);
+      return Collections.emptySet();
+    }
+
+    for (Map.Entry<String, Entry> e : staged.entrySet()) {
+      if (e.getValue().isLive()) {
+        index.put(e.getKey(), e.getValue());
+      } else {
+        index.remove(e.getKey());
+      }
+    }
+    return applied;
+  }
+
+  public synchronized boolean isWaiting(ReplicateRefUpdate update) {
+    Entry e = index.get(update.sha1());
+    return e != null && e.waiting;
+  }
+
+  public synchronized Stream<ReplicateRefUpdate> streamWaiting() {
+    return snapshot(e -> e.waiting).stream();
+  }
+
+  public synchronized Stream<ReplicateRefUpdate> streamRunning() {
+    return snapshot(e -> e.running).stream();
+  }
+
+  /**
+   * Adds the live tasks to the stats. The creation time of a task is when it was created or
+   * replayed by this process, as the records carry no timestamp.
+   */
+  synchronized void collectStats(ReplicationTasksStorage.TaskStatsCollector stats) {
+    for (Entry e : index.values()) {
+      if (e.waiting) {
+        stats.addWaiting(e.update.remote(), e.created);
+      }
+      if (e.running) {
+        stats.addRunning(e.update.remote());
+      }
+    }
+  }
+
+  /** Forces the current segment to disk. */
+  synchronized void sync() throws IOException {
+    if (current != null) {
+      current.force(false);
+    }
+  }
+
+  synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      if (current != null) {
+        current.force(false);
+        current.close();
+      }
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Error while closing replication journal %s", dir);
+    }
+  }
+
+  @VisibleForTesting
+  synchronized List<Path> listSegments() throws IOException {
+    List<Path> segments = new ArrayList<>();
+    for (long seq : segmentNumbers()) {
+      segments.add(segmentPath(seq));
+    }
+    return segments;
+  }
+
+  private List<ReplicateRefUpdate> snapshot(Predicate<Entry> filter) {
+    List<ReplicateRefUpdate> updates = new ArrayList<>();
+    for (Entry e : index.values()) {
+      if (filter.test(e)) {
+        updates.add(e.update);
+      }
+    }
+    return updates;
+  }
+
+  private void replay(Op op, String key, @Nullable ReplicateRefUpdate update) {
+    if (op == Op.SNAPSHOT) {
+      index.clear();
+      return;
+    }
+    Entry e = index.get(key);
+    if (e == null) {
+      if (op != Op.CREATE) {
+        return;
+      }
+      e = new Entry(update, System.currentTimeMillis());
+      index.put(key, e);
+    }
+    e.apply(op);
+    if (!e.isLive()) {
+      index.remove(key);
+    }
+  }
+
+  private void append(byte[] records, int count) throws IOException {
+    if (closed) {
+      throw new IOException(String.format("Replication journal %s is closed", dir));
+    }
+    if (current.size() >= segmentSize) {
+      roll();
+    }
+    long end = current.size();
+    try {
+      writer.write(current, records);
+    } catch (IOException e) {
+      // A partial write would be taken for a torn tail when replaying, dropping the later records
+      try {
+        current.truncate(end);
+      } catch (IOException t) {
+        e.addSuppressed(t);
+      }
+      throw e;
+    }
+    recordsSinceSnapshot += count;
+    if (durability != Durability.BUFFERED) {
+      current.force(durability == Durability.STRICT);
+    }
+  }
+
+  private void encode(
+      ByteArrayOutputStream records, Op op, String key, @Nullable ReplicateRefUpdate update)
+      throws IOException {
+    ByteArrayOutputStream body = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(body);
+    out.writeByte(op.ordinal());
+    out.writeUTF(key);
+    byte[] payload = update == null ? new byte[0] : encoder.apply(update);
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+
+    byte[] bytes = body.toByteArray();
+    CRC32 crc = new CRC32();
+    crc.update(bytes);
+    DataOutputStream record = new DataOutputStream(records);
+    record.writeInt(bytes.length);
+    record.write(bytes);
+    record.writeInt((int) crc.getValue());
+    record.flush();
+  }
+
+  private static void write(FileChannel channel, byte[] bytes) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  /**
+   * Switches to a new segment. The current one is only closed once the new one is open, so that a
+   * failure leaves the journal appending to the current one.
+   */
+  private void roll() throws IOException {
+    current.force(false);
+    if (recordsSinceSnapshot > 2L * index.size()) {
+      compact();
+    } else {
+      FileChannel next = openSegment(currentSeq + 1);
+      FileChannel previous = current;
+      current = next;
+      currentSeq++;
+      previous.close();
+    }
+  }
+
+  /**
+   * Writes the live tasks to a new snapshot segment, which becomes the current one, and deletes all
+   * the older segments. A crash before the older segments are deleted is harmless since their
+   * records are discarded by the SNAPSHOT record when replaying. The snapshot is removed when it
+   * cannot be opened for appending, as the records appended to the current segment would otherwise
+   * be discarded by it.
+   */
+  private void compact() throws IOException {
+    long seq = currentSeq + 1;
+    Path tmp = Files.createTempFile(dir, "snapshot", null);
+    try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+      ByteArrayOutputStream records = new ByteArrayOutputStream();
+      encode(records, Op.SNAPSHOT, "", null);
+      for (Entry e : index.values()) {
+        encode(records, Op.CREATE, e.update.sha1(), e.update);
+        if (e.running) {
+          encode(records, Op.START, e.update.sha1(), null);
+        }
+        if (e.running && e.waiting) {
+          encode(records, Op.CREATE, e.update.sha1(), e.update);
+        }
+      }
+      write(channel, records.toByteArray());
+      channel.force(false);
+    }
+    Path snapshot = segmentPath(seq);
+    Files.move(tmp, snapshot, StandardCopyOption.ATOMIC_MOVE);
+    FileChannel next;
+    try {
+      next = openSegment(seq);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(snapshot);
+      } catch (IOException d) {
+        e.addSuppressed(d);
+      }
+      throw e;
+    }
+    FileChannel previous = current;
+    current = next;
+    currentSeq = seq;
+    recordsSinceSnapshot = 0;
+    if (previous != null) {
+      previous.close();
+    }
+    for (long old : segmentNumbers()) {
+      if (old < seq) {
+        Files.deleteIfExists(segmentPath(old));
+      }
+    }
+    logger.atFine().log("Compacted replication journal %s to %d tasks", dir, index.size());
+  }
+
+  private void open() throws IOException {
+    List<Long> segments = segmentNumbers();
+    for (int i = 0; i < segments.size(); i++) {
+      replay(segmentPath(segments.get(i)), i == segments.size() - 1);
+    }
+    currentSeq = segments.isEmpty() ? 1 : segments.get(segments.size() - 1);
+    if (recordsSinceSnapshot > 2L * index.size() && !segments.isEmpty()) {
+      compact();
+    } else {
+      current = openSegment(currentSeq);
+    }
+  }
+
+  private void replay(Path segment, boolean isLast) throws IOException {
+    long offset = 0;
+    try (InputStream is = new BufferedInputStream(Files.newInputStream(segment));
+        DataInputStream in = new DataInputStream(is)) {
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return;
+        }
+        if (length < 0 || length > MAX_RECORD_LENGTH) {
+          throw new IOException(String.format("Invalid record length %d", length));
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        int expected = in.readInt();
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != expected) {
+          throw new IOException("Checksum mismatch");
+        }
+        replayRecord(body);
+        offset += length + 8;
+      }
+    } catch (IOException e) {
+      if (isLast) {
+        logger.atWarning().withCause(e).log(
+            "Truncating torn replication journal segment %s at offset %d", segment, offset);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+          channel.truncate(offset);
+        }
+      } else {
+        logger.atSevere().withCause(e).log(
+            "Corrupt replication journal segment %s at offset %d, skipping the remaining records",
+            segment, offset);
+      }
+    }
+  }
+
+  private void replayRecord(byte[] body) throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+    Op op = Op.fromCode(in.readUnsignedByte());
+    String key = in.readUTF();
+    byte[] payload = new byte[in.readInt()];
+    in.readFully(payload);
+    ReplicateRefUpdate update = null;
+    if (op == Op.CREATE) {
+      update = ReplicateRefUpdate.create(payload, key, gson);
+    }
+    if (op == Op.SNAPSHOT) {
+      recordsSinceSnapshot = 0;
+    } else {
+      recordsSinceSnapshot++;
+    }
+    replay(op, key, update);
+  }
+
+  private List<Long> segmentNumbers() throws IOException {
+    List<Long> seqs = new ArrayList<>();
+    try (Stream<Path> files = Files.list(dir)) {
+      files.forEach(
+          f -> {
+            Matcher m = SEGMENT.matcher(f.getFileName().toString());
+            if (m.matches()) {
+              seqs.add(Long.parseLong(m.group(1)));
+            }
+          });
+    }
+    seqs.sort(null);
+    return seqs;
+  }
+
+  private Path segmentPath(long seq) {
+    return dir.resolve(String.format("segment-%010d.log", seq));
+  }
+
+  private FileChannel openSegment(long seq) throws IOException {
+    return FileChannel.open(
+        segmentPath(seq),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+  }
+}
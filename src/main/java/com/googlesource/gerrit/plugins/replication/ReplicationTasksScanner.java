@@ -0,0 +1,248 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.auto.value.AutoValue;
+import com.google.common.flogger.FluentLogger;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Checks the consistency of the file based task storage, usually on startup:
+ *
+ * <ul>
+ *   <li>removes the files under building older than a maximum age, left by interrupted creations,
+ *   <li>removes the running copy of the tasks which are also waiting, when allowed,
+ *   <li>moves the task files which cannot be decoded to the quarantine directory, so that they are
+ *       no longer read and logged every time the tasks are listed.
+ * </ul>
+ *
+ * <p>The shards of the waiting and running directories are scanned in parallel.
+ */
+class ReplicationTasksScanner {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  interface TaskDecoder {
+    ReplicateRefUpdate decode(Path file) throws IOException;
+  }
+
+  @AutoValue
+  abstract static class Result {
+    static Result create(long orphansRemoved, long duplicatesResolved, long quarantined) {
+      return new AutoValue_ReplicationTasksScanner_Result(
+          orphansRemoved, duplicatesResolved, quarantined);
+    }
+
+    abstract long orphansRemoved();
+
+    abstract long duplicatesResolved();
+
+    abstract long quarantined();
+
+    boolean isClean() {
+      return orphansRemoved() == 0 && duplicatesResolved() == 0 && quarantined() == 0;
+    }
+  }
+
+  /** The keys and files of the decoded tasks of one shard, and the number of quarantined ones. */
+  private static class ShardResult {
+    final Map<String, Path> tasks = new HashMap<>();
+    long quarantined;
+  }
+
+  private final Path building;
+  private final Path waiting;
+  private final Path running;
+  private final Path quarantine;
+  private final TaskDecoder decoder;
+  private final int threads;
+  private final boolean resolveDuplicates;
+
+  /**
+   * @param resolveDuplicates whether a task both waiting and running can only be a leftover, which
+   *     does not hold when other primaries could be running it.
+   */
+  ReplicationTasksScanner(
+      Path building,
+      Path waiting,
+      Path running,
+      Path quarantine,
+      TaskDecoder decoder,
+      int threads,
+      boolean resolveDuplicates) {
+    this.building = building;
+    this.waiting = waiting;
+    this.running = running;
+    this.quarantine = quarantine;
+    this.decoder = decoder;
+    this.threads = threads;
+    this.resolveDuplicates = resolveDuplicates;
+  }
+
+  Result scan(long buildingMaxAgeMillis) {
+    long orphans = removeOrphans(buildingMaxAgeMillis);
+    ExecutorService executor =
+        threads > 1
+            ? Executors.newFixedThreadPool(
+                threads,
+                new ThreadFactoryBuilder()
+                    .setNameFormat("ReplicationTasksScanner-%d")
+                    .setDaemon(true)
+                    .build())
+            : MoreExecutors.newDirectExecutorService();
+    try {
+      List<Future<ShardResult>> waitingShards = submitShards(executor, waiting);
+      List<Future<ShardResult>> runningShards = submitShards(executor, running);
+      ShardResult waitingTasks = merge(waitingShards);
+      ShardResult runningTasks = merge(runningShards);
+
+      long duplicates = 0;
+      if (resolveDuplicates) {
+        for (Map.Entry<String, Path> task : runningTasks.tasks.entrySet()) {
+          if (waitingTasks.tasks.containsKey(task.getKey()) && delete(task.getValue())) {
+            duplicates++;
+          }
+        }
+      }
+      return Result.create(
+          orphans, duplicates, waitingTasks.quarantined + runningTasks.quarantined);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private long removeOrphans(long maxAgeMillis) {
+    long oldest = System.currentTimeMillis() - maxAgeMillis;
+    long removed = 0;
+    for (Path file : list(building)) {
+      try {
+        if (Files.getLastModifiedTime(file).toMillis() < oldest && delete(file)) {
+          logger.atInfo().log("Removed orphaned replication task %s", file);
+          removed++;
+        }
+      } catch (NoSuchFileException e) {
+        // Published or removed meanwhile
+      } catch (IOException e) {
+        logger.atWarning().withCause(e).log("Couldn't check replication task %s", file);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Submits the scan of each shard of a state directory. The tasks left directly under the state
+   * directory by older versions form an additional shard.
+   */
+  private List<Future<ShardResult>> submitShards(ExecutorService executor, Path stateDir) {
+    List<Path> shards = new ArrayList<>();
+    shards.add(stateDir);
+    for (Path remote : list(stateDir)) {
+      if (Files.isDirectory(remote)) {
+        shards.addAll(list(remote));
+      }
+    }
+    return shards.stream()
+        .filter(Files::isDirectory)
+        .map(shard -> executor.submit(() -> scanShard(stateDir, shard)))
+        .collect(Collectors.toList());
+  }
+
+  private ShardResult scanShard(Path stateDir, Path shard) {
+    ShardResult result = new ShardResult();
+    for (Path file : list(shard)) {
+      if (!Files.isRegularFile(file)) {
+        continue;
+      }
+      try {
+        ReplicateRefUpdate update = decoder.decode(file);
+        result.tasks.put(update.sha1(), file);
+      } catch (NoSuchFileException e) {
+        // Moved or removed meanwhile
+      } catch (IOException | RuntimeException e) {
+        if (quarantine(stateDir, file, e)) {
+          result.quarantined++;
+        }
+      }
+    }
+    return result;
+  }
+
+  private boolean quarantine(Path stateDir, Path file, Exception cause) {
+    Path target = quarantine.resolve(stateDir.getFileName()).resolve(file.getFileName());
+    try {
+      Files.createDirectories(target.getParent());
+      Files.move(file, target, StandardCopyOption.REPLACE_EXISTING);
+      logger.atWarning().withCause(cause).log(
+          "Moved replication task %s which cannot be read to %s", file, target);
+      return true;
+    } catch (NoSuchFileException e) {
+      return false;
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Couldn't quarantine replication task %s", file);
+      return false;
+    }
+  }
+
+  private static ShardResult merge(List<Future<ShardResult>> shards) {
+    ShardResult merged = new ShardResult();
+    for (Future<ShardResult> shard : shards) {
+      try {
+        ShardResult r = Uninterruptibles.getUninterruptibly(shard);
+        merged.tasks.putAll(r.tasks);
+        merged.quarantined += r.quarantined;
+      } catch (ExecutionException e) {
+        logger.atSevere().withCause(e).log("Error while scanning replication tasks");
+      }
+    }
+    return merged;
+  }
+
+  private static boolean delete(Path file) {
+    try {
+      return Files.deleteIfExists(file);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Couldn't delete %s", file);
+      return false;
+    }
+  }
+
+  private static List<Path> list(Path dir) {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.collect(Collectors.toList());
+    } catch (NoSuchFileException e) {
+      return List.of();
+    } catch (IOException e) {
+      logger.atSevere().withCause(e).log("Error while listing %s", dir);
+      return List.of();
+    }
+  }
+}
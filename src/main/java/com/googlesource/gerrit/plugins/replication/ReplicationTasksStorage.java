@@ -18,10 +18,13 @@ import static java.nio.charset.StandardCharsets.UTF_8;
 
 import com.google.auto.value.AutoValue;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Suppliers;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.flogger.FluentLogger;
-import com.google.common.hash.Hashing;
 import com.google.gerrit.common.Nullable;
+import com.google.gerrit.metrics.Timer1;
+import com.google.gerrit.server.config.ConfigUtil;
+import com.google.gerrit.server.config.GerritInstanceId;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.TypeAdapter;
@@ -34,19 +37,38 @@ import com.google.inject.Inject;
 import com.google.inject.ProvisionException;
 import com.google.inject.Singleton;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationTaskStore;
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URISyntaxException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
-import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.transport.URIish;
 
 /**
@@ -64,18 +86,39 @@ import org.eclipse.jgit.transport.URIish;
  * <p><code>
  *   .../building/<tmp_name>                       new replication tasks under construction
  *   .../running/<sha1>                            running replication tasks
- *   .../waiting/<task_sha1>  outstanding replication tasks
+ *   .../waiting/<sha1>                            outstanding replication tasks
+ *   .../quarantine/<state>/<sha1>                 tasks which cannot be read
  * </code>
  *
  * <p>Tasks are moved atomically via a rename between those directories to indicate the current
- * state of each task.
+ * state of each task. With the {@link TaskLayout#PARTITIONED} layout of replication.taskLayout, the
+ * running and waiting tasks are stored under <code>.../&lt;state&gt;/&lt;remote&gt;/&lt;xx&gt;/
+ * &lt;sha1&gt;</code> instead, partitioned by the name of the remote and the first two hex digits
+ * of the sha1, which allows to only list the tasks of some remotes. Tasks left in the other layout
+ * are moved to the configured one when the index is loaded.
+ *
+ * <p>The keys of the waiting and running tasks are also kept in memory, loaded from the file names
+ * on first use and updated on every state transition, so that checking whether a task is waiting
+ * does not need to access the filesystem. With multiple primaries sharing the store the other nodes
+ * change it behind the back of this index, so it is only used as a hint which is verified against
+ * the filesystem, and is periodically reconciled with the store by {@link #reconcileIndex()}.
+ *
+ * <p>When streaming the tasks, the task files are decoded ahead of the consumer by up to
+ * replication.taskReaderThreads threads, see {@link PrefetchingTaskReader}.
+ *
+ * <p>The state transitions of several tasks can be grouped in a {@link Batch} and persisted
+ * together. The replication.taskStorageDurability config option determines when the transitions are
+ * forced to disk, see {@link Durability}.
  */
 @Singleton
 public class ReplicationTasksStorage {
   private static final FluentLogger logger = FluentLogger.forEnclosingClass();
 
+  static final int DEFAULT_TASK_READER_THREADS = 4;
+  static final long DEFAULT_TASK_LEASE_DURATION_MS = TimeUnit.MINUTES.toMillis(5);
+
   @AutoValue
-  public abstract static class ReplicateRefUpdate {
+  public abstract static class ReplicateRefUpdate implements ReplicationTaskStore.Task {
     public static Optional<ReplicateRefUpdate> createOptionally(Path file, Gson gson) {
       try {
         return Optional.ofNullable(create(file, gson));
@@ -88,23 +131,37 @@ public class ReplicationTasksStorage {
     }
 
     public static ReplicateRefUpdate create(Path file, Gson gson) throws IOException {
-      String json = new String(Files.readAllBytes(file), UTF_8);
-      return create(gson.fromJson(json, ReplicateRefUpdate.class), file.getFileName().toString());
+      return create(Files.readAllBytes(file), file.getFileName().toString(), gson);
+    }
+
+    /** Decodes a task stored with any of the {@link TaskEncoding}s. */
+    static ReplicateRefUpdate create(byte[] bytes, String key, Gson gson) throws IOException {
+      if (ReplicateRefUpdateCodec.isBinary(bytes)) {
+        return ReplicateRefUpdateCodec.decode(bytes, key);
+      }
+      return create(gson.fromJson(new String(bytes, UTF_8), ReplicateRefUpdate.class), key);
     }
 
     public static ReplicateRefUpdate create(
         String project, Set<String> refs, URIish uri, String remote) {
-      return new AutoValue_ReplicationTasksStorage_ReplicateRefUpdate(
+      ImmutableSet<String> refSet = ImmutableSet.copyOf(refs);
+      String uriString = uri.toASCIIString();
+      return create(
           project,
-          ImmutableSet.copyOf(refs),
-          uri.toASCIIString(),
+          refSet,
+          uriString,
           remote,
-          sha1(project, ImmutableSet.copyOf(refs), uri.toASCIIString(), remote));
+          ReplicateRefUpdateCodec.key(project, refSet, uriString, remote));
     }
 
     public static ReplicateRefUpdate create(ReplicateRefUpdate u, String filename) {
+      return create(u.project(), u.refs(), u.uri(), u.remote(), filename);
+    }
+
+    static ReplicateRefUpdate create(
+        String project, ImmutableSet<String> refs, String uri, String remote, String sha1) {
       return new AutoValue_ReplicationTasksStorage_ReplicateRefUpdate(
-          u.project(), u.refs(), u.uri(), u.remote(), filename);
+          project, InternedRefs.intern(refs), uri, remote, sha1);
     }
 
     public abstract String project();
@@ -117,10 +174,9 @@ public class ReplicationTasksStorage {
 
     public abstract String sha1();
 
-    private static String sha1(String project, Set<String> refs, String uri, String remote) {
-      return ReplicationTasksStorage.sha1(
-              project + "\n" + refs.toString() + "\n" + uri + "\n" + remote)
-          .name();
+    @Override
+    public String key() {
+      return sha1();
     }
 
     @Override
@@ -140,63 +196,682 @@ public class ReplicationTasksStorage {
     }
   }
 
+  /** When the state transitions of the tasks are forced to disk. */
+  public enum Durability {
+    /** Each transition is forced to disk before the next one is applied. */
+    STRICT,
+    /** The transitions of a {@link Batch} are forced to disk once, when it is committed. */
+    BATCHED,
+    /** Forcing the transitions to disk is left to the operating system. */
+    BUFFERED
+  }
+
+  /** How the tasks are encoded when persisted, tasks in any encoding can always be read. */
+  public enum TaskEncoding {
+    /** JSON, readable by all the versions of the plugin. */
+    JSON,
+    /** The compact binary encoding of {@link ReplicateRefUpdateCodec}. */
+    BINARY
+  }
+
+  /** Where the task files are stored within the waiting and running directories. */
+  public enum TaskLayout {
+    /** Directly in the directories, readable by all the versions of the plugin. */
+    FLAT,
+    /** Partitioned by remote name and by the first two hex digits of the task key. */
+    PARTITIONED
+  }
+
+  enum Op {
+    CREATE,
+    START,
+    RESET,
+    FINISH
+  }
+
+  @AutoValue
+  abstract static class Transition {
+    static Transition create(Op op, ReplicateRefUpdate update) {
+      return new AutoValue_ReplicationTasksStorage_Transition(op, update);
+    }
+
+    abstract Op op();
+
+    abstract ReplicateRefUpdate update();
+  }
+
+  /**
+   * A group of task state transitions persisted together by {@link #commit()}, in the order they
+   * were added.
+   */
+  public class Batch {
+    private final List<Transition> transitions = new ArrayList<>();
+
+    private Batch() {}
+
+    public Batch create(ReplicateRefUpdate update) {
+      return add(Op.CREATE, update);
+    }
+
+    public Batch start(ReplicateRefUpdate update) {
+      return add(Op.START, update);
+    }
+
+    public Batch reset(ReplicateRefUpdate update) {
+      return add(Op.RESET, update);
+    }
+
+    public Batch finish(ReplicateRefUpdate update) {
+      return add(Op.FINISH, update);
+    }
+
+    /**
+     * Persists the transitions added so far.
+     *
+     * @return the tasks for which the transition could be applied.
+     */
+    public Set<ReplicateRefUpdate> commit() {
+      if (transitions.isEmpty()) {
+        return Collections.emptySet();
+      }
+      List<Transition> committing = new ArrayList<>(transitions);
+      transitions.clear();
+      return ReplicationTasksStorage.this.commit(committing);
+    }
+
+    private Batch add(Op op, ReplicateRefUpdate update) {
+      transitions.add(Transition.create(op, update));
+      return this;
+    }
+  }
+
+  /** The number of tasks of a remote, and the age of its oldest waiting task. */
+  @AutoValue
+  public abstract static class RemoteTaskStats {
+    public abstract long waiting();
+
+    public abstract long running();
+
+    public abstract long building();
+
+    /** Creation time in milliseconds of the oldest waiting task, 0 when there is none. */
+    public abstract long oldestWaiting();
+  }
+
+  /** Accumulates the {@link RemoteTaskStats} of the remotes task by task. */
+  static class TaskStatsCollector {
+    private final Map<String, long[]> stats = new HashMap<>();
+
+    void addWaiting(String remote, long created) {
+      long[] s = get(remote);
+      s[0]++;
+      s[3] = s[3] == 0 ? created : Math.min(s[3], created);
+    }
+
+    void addRunning(String remote) {
+      get(remote)[1]++;
+    }
+
+    void addBuilding(String remote) {
+      get(remote)[2]++;
+    }
+
+    private long[] get(String remote) {
+      return stats.computeIfAbsent(remote, r -> new long[4]);
+    }
+
+    Map<String, RemoteTaskStats> build() {
+      Map<String, RemoteTaskStats> result = new HashMap<>();
+      stats.forEach(
+          (remote, s) ->
+              result.put(
+                  remote,
+                  new AutoValue_ReplicationTasksStorage_RemoteTaskStats(s[0], s[1], s[2], s[3])));
+      return result;
+    }
+  }
+
+  /** The remote and creation time of an indexed task. */
+  private static class IndexEntry {
+    @Nullable final String remote;
+    final long created;
+
+    IndexEntry(@Nullable String remote, long created) {
+      this.remote = remote;
+      this.created = created;
+    }
+  }
+
+  /**
+   * The waiting and running tasks by key, and the remotes of the tasks being built. While a new
+   * index is loaded from the store, the changes are recorded to be replayed on the new index, as
+   * the store may have been listed before they were made.
+   */
+  private static class TaskKeyIndex {
+    final Map<String, IndexEntry> waiting = new ConcurrentHashMap<>();
+    final Map<String, IndexEntry> running = new ConcurrentHashMap<>();
+    final Map<Path, String> building = new ConcurrentHashMap<>();
+    @Nullable private List<Consumer<TaskKeyIndex>> changes;
+    @Nullable private volatile TaskKeyIndex replacement;
+
+    /** Applies the change, to the index which replaced this one if any. */
+    void update(Consumer<TaskKeyIndex> change) {
+      TaskKeyIndex next;
+      synchronized (this) {
+        if (replacement == null) {
+          change.accept(this);
+          if (changes != null) {
+            changes.add(change);
+          }
+          return;
+        }
+        next = replacement;
+      }
+      next.update(change);
+    }
+
+    /** The index which replaced this one, or this one when not replaced. */
+    TaskKeyIndex latest() {
+      TaskKeyIndex i = this;
+      for (TaskKeyIndex next = i.replacement; next != null; next = i.replacement) {
+        i = next;
+      }
+      return i;
+    }
+
+    synchronized void startRecording() {
+      changes = new ArrayList<>();
+    }
+
+    /**
+     * Replays the changes recorded since {@link #startRecording()} on the index replacing this one.
+     */
+    synchronized void replaceWith(TaskKeyIndex next) {
+      changes.forEach(c -> c.accept(next));
+      changes = null;
+      replacement = next;
+    }
+  }
+
   private final Gson gson;
+  @Nullable private ReplicationMetrics metrics;
+  private final PrefetchingTaskReader<ReplicateRefUpdate> reader;
+  private final int readerThreads;
 
   private final Path buildingUpdates;
   private final Path runningUpdates;
   private final Path waitingUpdates;
+  private final Path quarantineUpdates;
+  private final Path leaseUpdates;
+  private final Supplier<Path> buildingDir;
+  private final Supplier<Path> runningDir;
+  private final Supplier<Path> waitingDir;
 
+  private final Set<Path> partitionDirs = ConcurrentHashMap.newKeySet();
+
+  private volatile TaskKeyIndex index;
+
+  protected final Durability durability;
+  protected final TaskEncoding encoding;
+  private TaskLayout layout = TaskLayout.FLAT;
   private boolean isMultiPrimary;
+  @Nullable private TaskLeases leases;
 
   @Inject
-  ReplicationTasksStorage(ReplicationConfig config) {
-    this(config.getEventsDirectory().resolve("ref-updates"));
+  ReplicationTasksStorage(ReplicationConfig config, @Nullable @GerritInstanceId String instanceId) {
+    this(
+        config.getEventsDirectory().resolve("ref-updates"),
+        getDurability(config),
+        getTaskEncoding(config),
+        config.getConfig().getInt("replication", "taskReaderThreads", DEFAULT_TASK_READER_THREADS));
+    layout = config.getConfig().getEnum("replication", null, "taskLayout", TaskLayout.FLAT);
     isMultiPrimary = config.getDistributionInterval() != 0;
+    if (config.getDistributionInterval() > 0) {
+      leases =
+          new TaskLeases(
+              getNodeId(instanceId),
+              ConfigUtil.getTimeUnit(
+                  config.getConfig(),
+                  "replication",
+                  null,
+                  "taskLeaseDuration",
+                  DEFAULT_TASK_LEASE_DURATION_MS,
+                  TimeUnit.MILLISECONDS));
+    }
   }
 
   @VisibleForTesting
   public ReplicationTasksStorage(Path refUpdates) {
+    this(refUpdates, Durability.BUFFERED, TaskEncoding.JSON);
+  }
+
+  @VisibleForTesting
+  ReplicationTasksStorage(Path refUpdates, TaskLayout layout) {
+    this(refUpdates, Durability.BUFFERED, TaskEncoding.JSON);
+    this.layout = layout;
+  }
+
+  @VisibleForTesting
+  ReplicationTasksStorage(Path refUpdates, boolean isMultiPrimary) {
+    this(refUpdates, Durability.BUFFERED, TaskEncoding.JSON);
+    this.isMultiPrimary = isMultiPrimary;
+  }
+
+  @VisibleForTesting
+  ReplicationTasksStorage(Path refUpdates, String nodeId, long leaseDurationMillis) {
+    this(refUpdates, true);
+    leases = new TaskLeases(nodeId, leaseDurationMillis);
+  }
+
+  @VisibleForTesting
+  ReplicationTasksStorage(Path refUpdates, Durability durability, TaskEncoding encoding) {
+    this(refUpdates, durability, encoding, DEFAULT_TASK_READER_THREADS);
+  }
+
+  @VisibleForTesting
+  ReplicationTasksStorage(
+      Path refUpdates, Durability durability, TaskEncoding encoding, int readerThreads) {
     buildingUpdates = refUpdates.resolve("building");
     runningUpdates = refUpdates.resolve("running");
     waitingUpdates = refUpdates.resolve("waiting");
+    quarantineUpdates = refUpdates.resolve("quarantine");
+    leaseUpdates = refUpdates.resolve("leases");
+    buildingDir = Suppliers.memoize(() -> createDir(buildingUpdates));
+    runningDir = Suppliers.memoize(() -> createDir(runningUpdates));
+    waitingDir = Suppliers.memoize(() -> createDir(waitingUpdates));
+    this.durability = durability;
+    this.encoding = encoding;
     gson =
         new GsonBuilder()
             .registerTypeAdapterFactory(new ReplicateRefUpdateTypeAdapterFactory())
             .create();
+    this.readerThreads = readerThreads;
+    reader =
+        new PrefetchingTaskReader<>(
+            readerThreads, path -> ReplicateRefUpdate.createOptionally(path, gson));
+  }
+
+  /** Injected after construction, as the metrics of the tasks are read from this storage. */
+  @Inject
+  void setMetrics(ReplicationMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  static Durability getDurability(ReplicationConfig config) {
+    return config
+        .getConfig()
+        .getEnum("replication", null, "taskStorageDurability", Durability.BUFFERED);
+  }
+
+  static TaskEncoding getTaskEncoding(ReplicationConfig config) {
+    return config.getConfig().getEnum("replication", null, "taskEncoding", TaskEncoding.JSON);
+  }
+
+  /** Encodes the task as configured by replication.taskEncoding. */
+  byte[] encode(ReplicateRefUpdate update) {
+    if (encoding == TaskEncoding.BINARY) {
+      return ReplicateRefUpdateCodec.encode(update);
+    }
+    return (gson.toJson(update) + "\n").getBytes(UTF_8);
   }
 
   private boolean isMultiPrimary() {
     return isMultiPrimary;
   }
 
-  public String create(ReplicateRefUpdate r) {
-    return new Task(r).create();
+  /** Identifies this node in the task leases: the Gerrit instance id, or else the host name. */
+  private static String getNodeId(@Nullable String instanceId) {
+    if (instanceId != null) {
+      return instanceId;
+    }
+    try {
+      return InetAddress.getLocalHost().getHostName();
+    } catch (IOException e) {
+      String nodeId = UUID.randomUUID().toString();
+      logger.atWarning().withCause(e).log(
+          "Couldn't get the host name, leasing replication tasks as %s", nodeId);
+      return nodeId;
+    }
   }
 
-  public Set<ImmutableSet<String>> start(UriUpdates uriUpdates) {
-    Set<ImmutableSet<String>> startedRefs = new HashSet<>();
-    for (ReplicateRefUpdate update : uriUpdates.getReplicateRefUpdates()) {
-      Task t = new Task(update);
-      if (t.start()) {
-        startedRefs.add(t.update.refs());
+  /**
+   * How often the leases of the running tasks must be renewed, or 0 when the tasks are not leased.
+   */
+  public long getLeaseRenewalIntervalMillis() {
+    return leases == null ? 0 : leases.getRenewalIntervalMillis();
+  }
+
+  /** Extends the leases of the tasks started by this node, while they are being pushed. */
+  public void renewLeases() {
+    if (leases != null) {
+      leases.renewHeld();
+    }
+  }
+
+  /**
+   * Resets to waiting the running tasks whose lease expired, as the node which started them is no
+   * longer renewing them, so that they can be replayed by any node.
+   *
+   * @return the number of tasks reset.
+   */
+  public int reclaimExpiredLeases() {
+    if (leases == null) {
+      return 0;
+    }
+    Batch batch = newBatch();
+    try (Stream<ReplicateRefUpdate> running = streamRunning()) {
+      running.filter(this::isReclaimable).forEach(batch::reset);
+    }
+    int reclaimed = batch.commit().size();
+    if (reclaimed > 0) {
+      logger.atInfo().log("Reclaimed %d replication tasks with an expired lease", reclaimed);
+    }
+    return reclaimed;
+  }
+
+  /** Whether a running task is not leased by a live node, always true without leases. */
+  private boolean isReclaimable(ReplicateRefUpdate update) {
+    return leases == null || leases.isReclaimable(new Task(update).lease);
+  }
+
+  public Batch newBatch() {
+    return new Batch();
+  }
+
+  /** Replaces the in-memory index of the task keys with the current content of the store. */
+  public synchronized void reconcileIndex() {
+    TaskKeyIndex current = index;
+    if (current != null) {
+      current.startRecording();
+      TaskKeyIndex next = loadIndex(current);
+      current.replaceWith(next);
+      index = next;
+    }
+  }
+
+  private TaskKeyIndex index() {
+    TaskKeyIndex i = index;
+    if (i == null) {
+      synchronized (this) {
+        i = index;
+        if (i == null) {
+          i = loadIndex(null);
+          index = i;
+        }
       }
     }
-    return startedRefs;
+    // Replaced before it is swapped by reconcileIndex(), the changes then being made to the next
+    // one
+    return i.latest();
   }
 
-  public void reset(UriUpdates uriUpdates) {
-    for (ReplicateRefUpdate update : uriUpdates.getReplicateRefUpdates()) {
-      new Task(update).reset();
+  /**
+   * Loads the index from the store, taking the remotes of the known tasks from the previous one.
+   */
+  private TaskKeyIndex loadIndex(@Nullable TaskKeyIndex previous) {
+    TaskKeyIndex i = new TaskKeyIndex();
+    try (Timer1.Context<String> ctx = startTimer("load_index");
+        Stream<Path> waiting = walkNonDirs(waitingDir.get());
+        Stream<Path> running = walkNonDirs(runningDir.get())) {
+      waiting.forEach(
+          p ->
+              index(
+                  i.waiting,
+                  previous == null ? null : previous.waiting,
+                  waitingUpdates,
+                  relayout(waitingUpdates, p)));
+      running.forEach(
+          p ->
+              index(
+                  i.running,
+                  previous == null ? null : previous.running,
+                  runningUpdates,
+                  relayout(runningUpdates, p)));
+    }
+    return i;
+  }
+
+  /**
+   * Indexes a task file. Its remote is taken from its partition, or else from the previous index or
+   * the task itself, and its creation time is the last modification time of the file, which is kept
+   * by the renames. A file moved or removed since listed is skipped, the change being replayed on
+   * the index when made while it is reconciled.
+   */
+  private void index(
+      Map<String, IndexEntry> tasks,
+      @Nullable Map<String, IndexEntry> previous,
+      Path stateDir,
+      Path file) {
+    String taskKey = file.getFileName().toString();
+    Path relative = stateDir.relativize(file);
+    String remote;
+    if (relative.getNameCount() == 3) {
+      remote = URLDecoder.decode(relative.getName(0).toString(), UTF_8);
+    } else {
+      IndexEntry known = previous == null ? null : previous.get(taskKey);
+      remote =
+          known != null
+              ? known.remote
+              : ReplicateRefUpdate.createOptionally(file, gson)
+                  .map(ReplicateRefUpdate::remote)
+                  .orElse(null);
+    }
+    long created;
+    try {
+      created = Files.getLastModifiedTime(file).toMillis();
+    } catch (NoSuchFileException e) {
+      return;
+    } catch (IOException e) {
+      created = System.currentTimeMillis();
+    }
+    if (remote == null && Files.notExists(file)) {
+      return;
+    }
+    tasks.put(taskKey, new IndexEntry(remote, created));
+  }
+
+  /**
+   * Checks the consistency of the stored tasks, see {@link ReplicationTasksScanner}. The duplicate
+   * tasks are only resolved without multiple primaries.
+   */
+  public ReplicationTasksScanner.Result scan(long buildingMaxAgeMillis) {
+    ReplicationTasksScanner.Result result =
+        new ReplicationTasksScanner(
+                buildingDir.get(),
+                waitingDir.get(),
+                runningDir.get(),
+                quarantineUpdates,
+                file -> ReplicateRefUpdate.create(file, gson),
+                readerThreads,
+                !isMultiPrimary())
+            .scan(buildingMaxAgeMillis);
+    if (!result.isClean()) {
+      reconcileIndex();
+      if (metrics != null) {
+        metrics.recordQuarantinedTasks(result.quarantined());
+      }
+    }
+    return result;
+  }
+
+  /** Counts the tasks of each remote, from the in-memory index. */
+  public Map<String, RemoteTaskStats> getTaskStats() {
+    TaskKeyIndex i = index();
+    TaskStatsCollector stats = new TaskStatsCollector();
+    i.waiting.values().stream()
+        .filter(e -> e.remote != null)
+        .forEach(e -> stats.addWaiting(e.remote, e.created));
+    i.running.values().stream()
+        .filter(e -> e.remote != null)
+        .forEach(e -> stats.addRunning(e.remote));
+    i.building.values().forEach(stats::addBuilding);
+    return stats.build();
+  }
+
+  /** Starts timing a storage operation, the returned context is null when there are no metrics. */
+  @Nullable
+  protected Timer1.Context<String> startTimer(String operation) {
+    return metrics == null ? null : metrics.startTaskStorageOperation(operation);
+  }
+
+  /**
+   * Moves a task stored in the other layout, as by older versions or before the layout was changed,
+   * to its path in the configured layout.
+   */
+  private Path relayout(Path stateDir, Path file) {
+    boolean isFlat = file.getParent().equals(stateDir);
+    if (isFlat == (layout == TaskLayout.FLAT)) {
+      return file;
+    }
+    Optional<ReplicateRefUpdate> update = ReplicateRefUpdate.createOptionally(file, gson);
+    if (update.isEmpty()) {
+      return file;
+    }
+    Path moved = taskPath(stateDir, update.get().remote(), file.getFileName().toString());
+    try {
+      createPartitionDir(moved.getParent());
+      Files.move(file, moved, StandardCopyOption.ATOMIC_MOVE);
+      return moved;
+    } catch (IOException e) {
+      if (!(e instanceof NoSuchFileException)) {
+        logger.atWarning().withCause(e).log("Couldn't move task %s to %s", file, moved);
+      }
+      return file;
     }
   }
 
+  private Path taskPath(Path stateDir, String remote, String taskKey) {
+    if (layout == TaskLayout.FLAT) {
+      return stateDir.resolve(taskKey);
+    }
+    return stateDir
+        .resolve(remoteDirName(remote))
+        .resolve(taskKey.substring(0, Math.min(2, taskKey.length())))
+        .resolve(taskKey);
+  }
+
+  /** Escapes the remote name so that it is a single, non special, path segment. */
+  @VisibleForTesting
+  static String remoteDirName(String remote) {
+    String name = URLEncoder.encode(remote, UTF_8);
+    return name.startsWith(".") ? "%2E" + name.substring(1) : name;
+  }
+
+  private void createPartitionDir(Path dir) throws IOException {
+    if (partitionDirs.contains(dir)) {
+      return;
+    }
+    Files.createDirectories(dir);
+    if (durability != Durability.BUFFERED) {
+      sync(dir.getParent());
+      sync(dir.getParent().getParent());
+    }
+    partitionDirs.add(dir);
+  }
+
+  public String create(ReplicateRefUpdate r) {
+    newBatch().create(r).commit();
+    return r.sha1();
+  }
+
+  public Set<ImmutableSet<String>> start(UriUpdates uriUpdates) {
+    Batch batch = newBatch();
+    uriUpdates.getReplicateRefUpdates().forEach(batch::start);
+    return batch.commit().stream().map(ReplicateRefUpdate::refs).collect(Collectors.toSet());
+  }
+
+  public void reset(UriUpdates uriUpdates) {
+    Batch batch = newBatch();
+    uriUpdates.getReplicateRefUpdates().forEach(batch::reset);
+    batch.commit();
+  }
+
   @VisibleForTesting
   public void recoverAll() {
     recoverAll(r -> true);
   }
 
+  /**
+   * Resets the running tasks to waiting. When the tasks are leased, the tasks still leased by
+   * another node are left running.
+   */
   public void recoverAll(Predicate<ReplicateRefUpdate> shouldRecover) {
-    streamRunning().filter(shouldRecover).forEach(r -> new Task(r).recover());
+    Batch batch = newBatch();
+    try (Stream<ReplicateRefUpdate> running = streamRunning()) {
+      running.filter(shouldRecover).filter(this::isReclaimable).forEach(batch::reset);
+    }
+    batch.commit();
+  }
+
+  /**
+   * Recovers the running tasks of the given remotes, without reading the tasks of other remotes.
+   */
+  public void recoverAll(Set<String> remotes) {
+    Batch batch = newBatch();
+    try (Stream<ReplicateRefUpdate> running = streamRunning(remotes)) {
+      running.filter(this::isReclaimable).forEach(batch::reset);
+    }
+    batch.commit();
+  }
+
+  /**
+   * Merges the waiting tasks of the given remotes which have the same project, URI and remote into
+   * a single task with the union of their refs, or with all the refs when the union has more than
+   * {@code maxRefs} refs. The merged task is committed before the tasks it replaces are removed, so
+   * that no ref is lost if interrupted; the replaced tasks are removed by starting and finishing
+   * them, so a leftover one is recovered and merged again on the next compaction.
+   *
+   * <p>The waiting tasks must not be held by any pending push, whose tasks would then no longer
+   * exist when starting it.
+   *
+   * @return the number of waiting tasks removed.
+   */
+  public int compactWaiting(Set<String> remotes, int maxRefs) {
+    int removed = 0;
+    for (String remote : remotes) {
+      Map<List<String>, List<ReplicateRefUpdate>> tasksByDestination = new HashMap<>();
+      try (Stream<ReplicateRefUpdate> waiting = streamWaiting(Set.of(remote))) {
+        waiting.forEach(
+            u ->
+                tasksByDestination
+                    .computeIfAbsent(List.of(u.project(), u.uri()), k -> new ArrayList<>())
+                    .add(u));
+      }
+      for (List<ReplicateRefUpdate> tasks : tasksByDestination.values()) {
+        if (tasks.size() > 1) {
+          removed += merge(tasks, maxRefs);
+        }
+      }
+    }
+    return removed;
+  }
+
+  private int merge(List<ReplicateRefUpdate> tasks, int maxRefs) {
+    Set<String> refs = new TreeSet<>();
+    tasks.forEach(u -> refs.addAll(u.refs()));
+    ImmutableSet<String> mergedRefs =
+        refs.contains(PushOne.ALL_REFS) || refs.size() > maxRefs
+            ? ImmutableSet.of(PushOne.ALL_REFS)
+            : ImmutableSet.copyOf(refs);
+    ReplicateRefUpdate first = tasks.get(0);
+    ReplicateRefUpdate merged =
+        ReplicateRefUpdate.create(
+            first.project(),
+            mergedRefs,
+            first.uri(),
+            first.remote(),
+            ReplicateRefUpdateCodec.key(first.project(), mergedRefs, first.uri(), first.remote()));
+    if (newBatch().create(merged).commit().isEmpty()) {
+      return 0;
+    }
+
+    Batch batch = newBatch();
+    tasks.stream().filter(u -> !u.sha1().equals(merged.sha1())).forEach(u -> batch.start(u));
+    Set<ReplicateRefUpdate> started = batch.commit();
+    started.forEach(batch::finish);
+    batch.commit();
+    logger.atFine().log("Merged %d waiting tasks into %s", started.size(), merged);
+    return started.size();
   }
 
   public boolean isWaiting(UriUpdates uriUpdates) {
@@ -206,24 +881,120 @@ public class ReplicationTasksStorage {
   }
 
   public void finish(UriUpdates uriUpdates) {
-    for (ReplicateRefUpdate update : uriUpdates.getReplicateRefUpdates()) {
-      new Task(update).finish();
+    Batch batch = newBatch();
+    uriUpdates.getReplicateRefUpdates().forEach(batch::finish);
+    batch.commit();
+  }
+
+  /**
+   * Applies the transitions in order. The new tasks are written to the building directory first, so
+   * that with {@link Durability#BATCHED} they can all be forced to disk before being renamed, and
+   * each directory modified by the renames is then forced once.
+   */
+  protected Set<ReplicateRefUpdate> commit(List<Transition> transitions) {
+    Map<Transition, Path> built = new HashMap<>();
+    for (Transition t : transitions) {
+      if (t.op() == Op.CREATE) {
+        Task task = new Task(t.update());
+        if (!task.isKnownWaiting()) {
+          Path tmp = task.build();
+          if (tmp != null) {
+            built.put(t, tmp);
+          }
+        }
+      }
+    }
+    if (durability == Durability.BATCHED) {
+      try (Timer1.Context<String> ctx = startTimer("sync")) {
+        built.values().forEach(ReplicationTasksStorage::sync);
+      }
+    }
+
+    Set<ReplicateRefUpdate> applied = new HashSet<>();
+    Set<Path> modifiedDirs = new HashSet<>();
+    for (Transition t : transitions) {
+      Task task = new Task(t.update());
+      boolean done;
+      try (Timer1.Context<String> ctx = startTimer(t.op().name().toLowerCase(Locale.US))) {
+        switch (t.op()) {
+          case CREATE:
+            Path tmp = built.remove(t);
+            done = tmp == null ? task.isKnownWaiting() : task.publish(tmp);
+            modifiedDirs.add(task.waiting.getParent());
+            break;
+          case START:
+            done = task.start();
+            modifiedDirs.add(task.waiting.getParent());
+            modifiedDirs.add(task.running.getParent());
+            break;
+          case RESET:
+            done = task.reset();
+            modifiedDirs.add(task.waiting.getParent());
+            modifiedDirs.add(task.running.getParent());
+            break;
+          case FINISH:
+            done = task.finish();
+            modifiedDirs.add(task.running.getParent());
+            break;
+          default:
+            throw new IllegalStateException("Unknown transition " + t.op());
+        }
+      }
+      if (done) {
+        applied.add(t.update());
+      }
+      if (durability == Durability.STRICT) {
+        syncDirs(modifiedDirs);
+        modifiedDirs.clear();
+      }
+    }
+    if (durability != Durability.BUFFERED) {
+      syncDirs(modifiedDirs);
     }
+    return applied;
   }
 
   public Stream<ReplicateRefUpdate> streamWaiting() {
-    return streamRecursive(createDir(waitingUpdates));
+    index();
+    return streamRecursive(waitingDir.get());
+  }
+
+  /**
+   * Streams the waiting tasks of the given remotes. With the partitioned layout, only their
+   * partitions are listed.
+   */
+  public Stream<ReplicateRefUpdate> streamWaiting(Set<String> remotes) {
+    index();
+    return streamPartitions(waitingDir.get(), remotes);
   }
 
   public Stream<ReplicateRefUpdate> streamRunning() {
-    return streamRecursive(createDir(runningUpdates));
+    index();
+    return streamRecursive(runningDir.get());
+  }
+
+  /**
+   * Streams the running tasks of the given remotes. With the partitioned layout, only their
+   * partitions are listed.
+   */
+  public Stream<ReplicateRefUpdate> streamRunning(Set<String> remotes) {
+    index();
+    return streamPartitions(runningDir.get(), remotes);
+  }
+
+  private Stream<ReplicateRefUpdate> streamPartitions(Path stateDir, Set<String> remotes) {
+    if (layout == TaskLayout.FLAT) {
+      return streamRecursive(stateDir).filter(u -> remotes.contains(u.remote()));
+    }
+    return reader.read(
+        remotes.stream()
+            .map(remote -> stateDir.resolve(remoteDirName(remote)))
+            .filter(Files::isDirectory)
+            .flatMap(this::walkNonDirs));
   }
 
   private Stream<ReplicateRefUpdate> streamRecursive(Path dir) {
-    return walkNonDirs(dir)
-        .map(path -> ReplicateRefUpdate.createOptionally(path, gson))
-        .filter(Optional::isPresent)
-        .map(Optional::get);
+    return reader.read(walkNonDirs(dir));
   }
 
   private Stream<Path> walkNonDirs(Path path) {
@@ -244,9 +1015,19 @@ public class ReplicationTasksStorage {
     }
   }
 
-  @SuppressWarnings("deprecation")
-  private static ObjectId sha1(String s) {
-    return ObjectId.fromRaw(Hashing.sha1().hashString(s, UTF_8).asBytes());
+  private void syncDirs(Set<Path> dirs) {
+    try (Timer1.Context<String> ctx = startTimer("sync")) {
+      dirs.forEach(ReplicationTasksStorage::sync);
+    }
+  }
+
+  private static void sync(Path path) {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      channel.force(true);
+    } catch (IOException e) {
+      // Some platforms do not support forcing directories
+      logger.atFine().withCause(e).log("Couldn't force %s to disk", path);
+    }
   }
 
   private static Path createDir(Path dir) {
@@ -295,7 +1076,7 @@ public class ReplicationTasksStorage {
           return null;
         }
         String project = null;
-        Set<String> refs = new HashSet<>();
+        Set<String> refs = new LinkedHashSet<>();
         URIish uri = null;
         String remote = null;
 
@@ -316,12 +1097,12 @@ public class ReplicationTasksStorage {
             case "refs":
               in.beginArray();
               while (in.hasNext()) {
-                refs.add(in.nextString());
+                refs.add(InternedRefs.intern(in.nextString()));
               }
               in.endArray();
               break;
             case "ref":
-              refs.add(in.nextString());
+              refs.add(InternedRefs.intern(in.nextString()));
               break;
             case "uri":
               try {
@@ -361,53 +1142,160 @@ public class ReplicationTasksStorage {
     public final String taskKey;
     public final Path running;
     public final Path waiting;
+    @Nullable final Path lease;
 
     public Task(ReplicateRefUpdate update) {
       this.update = update;
       taskKey = update.sha1();
-      running = createDir(runningUpdates).resolve(taskKey);
-      waiting = createDir(waitingUpdates).resolve(taskKey);
+      running = taskPath(runningDir.get(), update.remote(), taskKey);
+      waiting = taskPath(waitingDir.get(), update.remote(), taskKey);
+      lease = leases == null ? null : taskPath(leaseUpdates, update.remote(), taskKey);
     }
 
     public String create() {
-      if (Files.exists(waiting)) {
+      if (isKnownWaiting()) {
         return taskKey;
       }
 
-      String json = gson.toJson(update) + "\n";
+      Path tmp = build();
+      if (tmp != null) {
+        publish(tmp);
+      }
+      return taskKey;
+    }
+
+    /** Moves a task written by {@link #build()} to the waiting directory. */
+    boolean publish(Path tmp) {
+      boolean published = rename(tmp, waiting);
+      IndexEntry e = newIndexEntry();
+      index()
+          .update(
+              i -> {
+                i.building.remove(tmp);
+                if (published) {
+                  i.waiting.put(taskKey, e);
+                }
+              });
+      return published;
+    }
+
+    /**
+     * Whether the index knows the task as waiting, verified against the filesystem. The entry of a
+     * task whose file was removed outside of the storage is dropped, so that the task is written
+     * again. With multiple primaries, a task not known to the index can still have been created by
+     * another node.
+     */
+    boolean isKnownWaiting() {
+      IndexEntry e = index().waiting.get(taskKey);
+      if (e == null) {
+        return false;
+      }
+      if (Files.exists(waiting)) {
+        return true;
+      }
+      index().update(i -> i.waiting.remove(taskKey, e));
+      return false;
+    }
+
+    /** Writes the task to a new file under the building directory. */
+    @Nullable
+    Path build() {
+      Path tmp = null;
       try {
-        Path tmp = Files.createTempFile(createDir(buildingUpdates), taskKey, null);
+        tmp = Files.createTempFile(buildingDir.get(), taskKey, null);
+        Path building = tmp;
+        index().update(i -> i.building.put(building, update.remote()));
         logger.atFine().log("CREATE %s %s", tmp, updateLog());
-        Files.write(tmp, json.getBytes(UTF_8));
-        logger.atFine().log("RENAME %s %s %s", tmp, waiting, updateLog());
-        rename(tmp, waiting);
+        Files.write(tmp, encode(update));
+        if (durability == Durability.STRICT) {
+          sync(tmp);
+        }
+        return tmp;
       } catch (IOException e) {
-        logger.atWarning().withCause(e).log("Couldn't create task %s", json);
+        logger.atWarning().withCause(e).log("Couldn't create task %s", update);
+        if (tmp != null) {
+          Path building = tmp;
+          index().update(i -> i.building.remove(building));
+        }
+        return null;
       }
-      return taskKey;
     }
 
+    /**
+     * Moves the task to running. When the tasks are leased, the lease is claimed first and the task
+     * is left waiting if another node holds it.
+     */
     public boolean start() {
-      return rename(waiting, running);
+      if (leases != null && !leases.claim(lease)) {
+        return false;
+      }
+      boolean started = rename(waiting, running);
+      IndexEntry created = newIndexEntry();
+      index()
+          .update(
+              i -> {
+                IndexEntry e = i.waiting.remove(taskKey);
+                if (started) {
+                  i.running.put(taskKey, e != null ? e : created);
+                }
+              });
+      if (leases != null) {
+        if (started) {
+          leases.confirm(lease);
+        } else {
+          leases.release(lease);
+        }
+      }
+      return started;
     }
 
-    public void reset() {
-      rename(running, waiting);
+    public boolean reset() {
+      boolean reset = rename(running, waiting);
+      IndexEntry created = newIndexEntry();
+      index()
+          .update(
+              i -> {
+                IndexEntry e = i.running.remove(taskKey);
+                if (reset) {
+                  i.waiting.put(taskKey, e != null ? e : created);
+                }
+              });
+      if (reset) {
+        if (leases != null) {
+          leases.revoke(lease);
+        }
+      }
+      return reset;
     }
 
     public void recover() {
-      rename(running, waiting);
+      reset();
     }
 
     public boolean isWaiting() {
-      return Files.exists(waiting);
+      if (isMultiPrimary()) {
+        return Files.exists(waiting);
+      }
+      return index().waiting.containsKey(taskKey);
     }
 
-    public void finish() {
+    public boolean finish() {
+      TaskKeyIndex i = index();
       try {
         logger.atFine().log("DELETE %s %s", running, updateLog());
         Files.delete(running);
+        i.update(x -> x.running.remove(taskKey));
+        if (leases != null) {
+          leases.release(lease);
+        }
+        return true;
       } catch (IOException e) {
+        if (e instanceof NoSuchFileException) {
+          i.update(x -> x.running.remove(taskKey));
+          if (leases != null) {
+            leases.release(lease);
+          }
+        }
         String message = "Error while deleting task";
         if (isMultiPrimary() && e instanceof NoSuchFileException) {
           logger.atFine().log(
@@ -417,6 +1305,7 @@ public class ReplicationTasksStorage {
         } else {
           logger.atSevere().withCause(e).log("%s %s", message, taskKey);
         }
+        return false;
       }
     }
 
@@ -424,6 +1313,7 @@ public class ReplicationTasksStorage {
     boolean rename(Path from, Path to) {
       try {
         logger.atFine().log("RENAME %s to %s %s", from, to, updateLog());
+        createPartitionDir(to.getParent());
         Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
         return true;
       } catch (IOException e) {
@@ -439,6 +1329,10 @@ public class ReplicationTasksStorage {
       }
     }
 
+    private IndexEntry newIndexEntry() {
+      return new IndexEntry(update.remote(), System.currentTimeMillis());
+    }
+
     private String updateLog() {
       return String.format("(%s:%s => %s)", update.project(), update.refs(), update.uri());
     }
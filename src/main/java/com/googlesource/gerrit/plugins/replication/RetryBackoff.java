@@ -0,0 +1,60 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Delay before another attempt of a push, growing exponentially with the number of attempts up to a
+ * cap, with a random jitter.
+ *
+ * <p>The delay of the n-th attempt is drawn uniformly between the base delay and the smaller of the
+ * cap and the base delay doubled n - 1 times, so that the pushes failing together, as when a remote
+ * is down, are spread instead of being attempted again in lockstep. The delay is never shorter than
+ * the base one. Without a cap greater than the base delay, the delay is always the base one.
+ */
+class RetryBackoff {
+  private final long baseMillis;
+  private final long capMillis;
+  private final DoubleSupplier random;
+
+  RetryBackoff(long baseMillis, long capMillis) {
+    this(baseMillis, capMillis, () -> ThreadLocalRandom.current().nextDouble());
+  }
+
+  @VisibleForTesting
+  RetryBackoff(long baseMillis, long capMillis, DoubleSupplier random) {
+    this.baseMillis = baseMillis;
+    this.capMillis = Math.max(baseMillis, capMillis);
+    this.random = random;
+  }
+
+  /**
+   * The delay before an attempt.
+   *
+   * @param attempt the number of the attempt, from 1.
+   * @return the delay in milliseconds.
+   */
+  long delayMillis(int attempt) {
+    if (capMillis == baseMillis) {
+      return baseMillis;
+    }
+    double exponential = baseMillis * Math.pow(2, Math.max(0, attempt - 1));
+    double upper = Math.min(capMillis, exponential);
+    return baseMillis + Math.round((upper - baseMillis) * random.getAsDouble());
+  }
+}
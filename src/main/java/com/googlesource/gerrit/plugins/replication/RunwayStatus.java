@@ -15,24 +15,55 @@
 package com.googlesource.gerrit.plugins.replication;
 
 public class RunwayStatus {
+  /** Why a push which is neither canceled nor colliding is not allowed to run yet. */
+  private enum Hold {
+    NONE,
+    BLOCKED,
+    THROTTLED,
+    WAITING,
+    HOST_BUSY
+  }
+
   public static RunwayStatus allowed() {
-    return new RunwayStatus(true, 0);
+    return new RunwayStatus(true, 0, Hold.NONE);
   }
 
   public static RunwayStatus canceled() {
-    return new RunwayStatus(false, 0);
+    return new RunwayStatus(false, 0, Hold.NONE);
   }
 
   public static RunwayStatus denied(int inFlightPushId) {
-    return new RunwayStatus(false, inFlightPushId);
+    return new RunwayStatus(false, inFlightPushId, Hold.NONE);
+  }
+
+  /** The push is held, as the pushes to its remote server are stopped by the circuit breaker. */
+  public static RunwayStatus blocked() {
+    return new RunwayStatus(false, 0, Hold.BLOCKED);
+  }
+
+  /** The push is delayed until the start reserved for it under the push rate of its remote. */
+  public static RunwayStatus throttled() {
+    return new RunwayStatus(false, 0, Hold.THROTTLED);
+  }
+
+  /** The push waits for another push to finish, as many pushes as allowed are running. */
+  public static RunwayStatus waiting() {
+    return new RunwayStatus(false, 0, Hold.WAITING);
+  }
+
+  /** The push waits for a connection to its remote host to be released. */
+  public static RunwayStatus hostBusy() {
+    return new RunwayStatus(false, 0, Hold.HOST_BUSY);
   }
 
   private final boolean allowed;
   private final int inFlightPushId;
+  private final Hold hold;
 
-  private RunwayStatus(boolean allowed, int inFlightPushId) {
+  private RunwayStatus(boolean allowed, int inFlightPushId, Hold hold) {
     this.allowed = allowed;
     this.inFlightPushId = inFlightPushId;
+    this.hold = hold;
   }
 
   public boolean isAllowed() {
@@ -40,7 +71,23 @@ public class RunwayStatus {
   }
 
   public boolean isCanceled() {
-    return !allowed && inFlightPushId == 0;
+    return !allowed && inFlightPushId == 0 && hold == Hold.NONE;
+  }
+
+  public boolean isBlocked() {
+    return hold == Hold.BLOCKED;
+  }
+
+  public boolean isThrottled() {
+    return hold == Hold.THROTTLED;
+  }
+
+  public boolean isWaiting() {
+    return hold == Hold.WAITING;
+  }
+
+  public boolean isHostBusy() {
+    return hold == Hold.HOST_BUSY;
   }
 
   public int getInFlightPushId() {
@@ -0,0 +1,195 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.flogger.FluentLogger;
+import com.google.gerrit.common.Nullable;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Leases of the tasks started by the primaries sharing a task storage.
+ *
+ * <p>A lease is a file holding the id of the node running the task and the time at which the lease
+ * expires. A node claims the lease of a waiting task before moving it to running, and keeps
+ * renewing it while pushing. The lease of a task claimed by another node is only taken over once
+ * expired, so a task is not started again while its node is alive, and the running tasks of a node
+ * which died can be reset to waiting by any other node.
+ *
+ * <p>The atomic move of the task from waiting to running remains what guarantees that a task is
+ * only started once. The expiry times are compared across nodes, whose clocks must be synchronized
+ * with a precision well below the lease duration.
+ */
+class TaskLeases {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static class Lease {
+    final String owner;
+    final long expiry;
+
+    Lease(String owner, long expiry) {
+      this.owner = owner;
+      this.expiry = expiry;
+    }
+  }
+
+  private final String nodeId;
+  private final long durationMillis;
+  private final Set<Path> held = ConcurrentHashMap.newKeySet();
+
+  TaskLeases(String nodeId, long durationMillis) {
+    this.nodeId = nodeId;
+    this.durationMillis = durationMillis;
+  }
+
+  long getRenewalIntervalMillis() {
+    return Math.max(1, durationMillis / 3);
+  }
+
+  /**
+   * Claims the lease before starting a task.
+   *
+   * @return false if the lease is held by another node.
+   */
+  boolean claim(Path lease) {
+    Lease current = read(lease);
+    if (current != null && current.expiry > now() && !current.owner.equals(nodeId)) {
+      logger.atFine().log("Task %s is leased by %s", lease.getFileName(), current.owner);
+      return false;
+    }
+    try {
+      Files.createDirectories(lease.getParent());
+      if (current == null) {
+        Files.write(lease, encode(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      } else {
+        write(lease);
+      }
+      held.add(lease);
+      return true;
+    } catch (FileAlreadyExistsException e) {
+      logger.atFine().log("Task %s was just leased by another node", lease.getFileName());
+      return false;
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Couldn't lease task %s", lease.getFileName());
+      return false;
+    }
+  }
+
+  /**
+   * Renews the lease of a task just started, in case another node which failed to start it
+   * overwrote it in the meantime.
+   */
+  void confirm(Path lease) {
+    renew(lease);
+  }
+
+  /** Releases the lease of a task this node no longer runs. */
+  void release(Path lease) {
+    held.remove(lease);
+    Lease current = read(lease);
+    if (current != null && current.owner.equals(nodeId)) {
+      delete(lease);
+    }
+  }
+
+  /** Removes the lease of a task reclaimed from another node. */
+  void revoke(Path lease) {
+    held.remove(lease);
+    delete(lease);
+  }
+
+  /**
+   * Whether a running task can be reset to waiting: its lease expired, is missing, or was held by a
+   * previous run of this node.
+   */
+  boolean isReclaimable(Path lease) {
+    if (held.contains(lease)) {
+      return false;
+    }
+    Lease current = read(lease);
+    return current == null || current.expiry <= now() || current.owner.equals(nodeId);
+  }
+
+  /** Extends the leases of all the tasks this node is running. */
+  void renewHeld() {
+    held.forEach(this::renew);
+  }
+
+  @VisibleForTesting
+  boolean isHeld(Path lease) {
+    return held.contains(lease);
+  }
+
+  private void renew(Path lease) {
+    try {
+      write(lease);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Couldn't renew lease of task %s", lease.getFileName());
+    }
+  }
+
+  private void write(Path lease) throws IOException {
+    Path tmp = Files.createTempFile(lease.getParent(), lease.getFileName().toString(), null);
+    Files.write(tmp, encode());
+    Files.move(tmp, lease, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private byte[] encode() {
+    return (nodeId + "\n" + (now() + durationMillis) + "\n").getBytes(UTF_8);
+  }
+
+  @Nullable
+  private static Lease read(Path lease) {
+    try {
+      List<String> fields =
+          Splitter.on('\n')
+              .omitEmptyStrings()
+              .splitToList(new String(Files.readAllBytes(lease), UTF_8));
+      if (fields.size() == 2) {
+        return new Lease(fields.get(0), Long.parseLong(fields.get(1)));
+      }
+      logger.atWarning().log("Ignoring invalid lease of task %s", lease.getFileName());
+    } catch (NoSuchFileException e) {
+      // Not leased
+    } catch (IOException | NumberFormatException e) {
+      logger.atWarning().withCause(e).log("Couldn't read lease of task %s", lease.getFileName());
+    }
+    return null;
+  }
+
+  private static void delete(Path lease) {
+    try {
+      Files.deleteIfExists(lease);
+    } catch (IOException e) {
+      logger.atWarning().withCause(e).log("Couldn't delete lease of task %s", lease.getFileName());
+    }
+  }
+
+  private static long now() {
+    return System.currentTimeMillis();
+  }
+}
@@ -0,0 +1,242 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.flogger.FluentLogger;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Hierarchical timing wheel holding delayed tasks until they are due, and then handing them to an
+ * executor.
+ *
+ * <p>Time is divided in ticks. A task due within 256 ticks is put in the slot of the first wheel
+ * for its tick, a task due later in the slot of an outer wheel covering 256 times more ticks per
+ * slot. When the first wheel wraps, the tasks of the next slot of the outer wheel are spread over
+ * the inner one. Scheduling and cancelling a task are therefore constant time operations, whatever
+ * the number of delayed tasks, and a cancelled task is removed immediately instead of staying
+ * queued until its delay expires.
+ *
+ * <p>The wheel is advanced by {@link #run()}, which must be called at least every tick, usually by
+ * scheduling it at a fixed rate. A tick which is late is caught up on the next run, and a task is
+ * never handed to the executor before it is due.
+ */
+class TimingWheel implements Runnable {
+  private static final FluentLogger logger = FluentLogger.forEnclosingClass();
+
+  private static final int LEVELS = 4;
+  private static final int SLOT_BITS = 8;
+  private static final int SLOTS = 1 << SLOT_BITS;
+  private static final int SLOT_MASK = SLOTS - 1;
+
+  /** A delayed task, linked in the slot of its wheel. */
+  private static class Timeout {
+    final Runnable task;
+    final long deadline;
+    Timeout prev;
+    Timeout next;
+
+    Timeout(Runnable task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    void unlink() {
+      prev.next = next;
+      next.prev = prev;
+      prev = null;
+      next = null;
+    }
+  }
+
+  /** A circular list of timeouts, with a sentinel. */
+  private static class Slot {
+    final Timeout head = new Timeout(null, 0);
+
+    Slot() {
+      head.prev = head;
+      head.next = head;
+    }
+
+    void add(Timeout t) {
+      t.prev = head.prev;
+      t.next = head;
+      head.prev.next = t;
+      head.prev = t;
+    }
+
+    /** Removes and returns all the timeouts of the slot. */
+    List<Timeout> drain() {
+      List<Timeout> timeouts = new ArrayList<>();
+      for (Timeout t = head.next; t != head; ) {
+        Timeout next = t.next;
+        t.unlink();
+        timeouts.add(t);
+        t = next;
+      }
+      return timeouts;
+    }
+  }
+
+  private final String name;
+  private final long tickNanos;
+  private final Executor executor;
+  private final LongSupplier nanoTime;
+  private final long start;
+  private final Slot[][] wheels = new Slot[LEVELS][SLOTS];
+  private final Map<Runnable, Timeout> timeouts = new IdentityHashMap<>();
+  private long tick;
+
+  TimingWheel(String name, long tick, TimeUnit unit, Executor executor) {
+    this(name, tick, unit, executor, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  TimingWheel(String name, long tick, TimeUnit unit, Executor executor, LongSupplier nanoTime) {
+    this.name = name;
+    this.tickNanos = Math.max(1, unit.toNanos(tick));
+    this.executor = executor;
+    this.nanoTime = nanoTime;
+    start = nanoTime.getAsLong();
+    for (Slot[] wheel : wheels) {
+      for (int i = 0; i < SLOTS; i++) {
+        wheel[i] = new Slot();
+      }
+    }
+  }
+
+  /**
+   * Hands the task to the executor after the delay, rounded up to the next tick. A task already
+   * delayed is rescheduled.
+   */
+  void schedule(Runnable task, long delay, TimeUnit unit) {
+    long elapsed = nanoTime.getAsLong() - start + unit.toNanos(Math.max(0, delay));
+    long deadline = (elapsed + tickNanos - 1) / tickNanos;
+    synchronized (this) {
+      remove(task);
+      if (deadline > tick) {
+        Timeout t = new Timeout(task, deadline);
+        timeouts.put(task, t);
+        insert(t);
+        return;
+      }
+    }
+    dispatch(task);
+  }
+
+  /**
+   * Removes a delayed task.
+   *
+   * @return false if the task is not delayed, as never scheduled or already handed to the executor.
+   */
+  synchronized boolean cancel(Runnable task) {
+    return remove(task);
+  }
+
+  synchronized int size() {
+    return timeouts.size();
+  }
+
+  /**
+   * Removes all the delayed tasks.
+   *
+   * @return the number of tasks removed.
+   */
+  synchronized int clear() {
+    int removed = timeouts.size();
+    timeouts.values().forEach(Timeout::unlink);
+    timeouts.clear();
+    return removed;
+  }
+
+  /** Advances the wheel up to the current tick, handing the tasks which are due to the executor. */
+  @Override
+  public void run() {
+    long now = (nanoTime.getAsLong() - start) / tickNanos;
+    List<Runnable> due = new ArrayList<>();
+    synchronized (this) {
+      while (tick < now) {
+        tick++;
+        cascade();
+        for (Timeout t : wheels[0][(int) tick & SLOT_MASK].drain()) {
+          if (t.deadline <= tick) {
+            timeouts.remove(t.task);
+            due.add(t.task);
+          } else {
+            insert(t);
+          }
+        }
+      }
+    }
+    due.forEach(this::dispatch);
+  }
+
+  /**
+   * Spreads the timeouts of the outer wheels' slots starting at the current tick over the inner
+   * wheels, from the outermost one.
+   */
+  private void cascade() {
+    int level = 0;
+    while (level < LEVELS - 1 && (tick & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0) {
+      level++;
+    }
+    for (; level > 0; level--) {
+      Slot slot = wheels[level][(int) (tick >>> (SLOT_BITS * level)) & SLOT_MASK];
+      slot.drain().forEach(this::insert);
+    }
+  }
+
+  private void insert(Timeout t) {
+    long delta = t.deadline - tick;
+    if (delta <= 0) {
+      wheels[0][(int) tick & SLOT_MASK].add(t);
+      return;
+    }
+    int level = 0;
+    while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    wheels[level][(int) (t.deadline >>> (SLOT_BITS * level)) & SLOT_MASK].add(t);
+  }
+
+  private boolean remove(Runnable task) {
+    Timeout t = timeouts.remove(task);
+    if (t == null) {
+      return false;
+    }
+    t.unlink();
+    return true;
+  }
+
+  private void dispatch(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      logger.atFine().log("%s: %s not executed, the executor is shut down", name, task);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}
@@ -0,0 +1,90 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import com.google.common.annotations.VisibleForTesting;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Limits the rate of an operation, allowing bursts up to a capacity.
+ *
+ * <p>The bucket fills with tokens at the rate, up to its capacity, and starts full. Taking tokens
+ * never fails: the tokens missing are borrowed from the future, and the caller waits until the
+ * bucket would have refilled them. The callers taking tokens in turn are therefore served in order,
+ * each waiting behind the debt left by the previous ones.
+ */
+class TokenBucket {
+  private final double tokensPerNano;
+  private final double capacity;
+  private final LongSupplier nanoTime;
+  private double tokens;
+  private long refilledAt;
+
+  /**
+   * @param rate tokens added per unit of time.
+   * @param unit unit of time of the rate.
+   * @param capacity tokens the bucket can hold, at least 1.
+   */
+  TokenBucket(double rate, TimeUnit unit, double capacity) {
+    this(rate, unit, capacity, System::nanoTime);
+  }
+
+  @VisibleForTesting
+  TokenBucket(double rate, TimeUnit unit, double capacity, LongSupplier nanoTime) {
+    this.tokensPerNano = rate / unit.toNanos(1);
+    this.capacity = Math.max(1, capacity);
+    this.nanoTime = nanoTime;
+    tokens = this.capacity;
+    refilledAt = nanoTime.getAsLong();
+  }
+
+  /**
+   * Takes tokens from the bucket.
+   *
+   * @return nanoseconds to wait before the tokens are available, 0 when they already are.
+   */
+  synchronized long reserve(long count) {
+    refill();
+    tokens -= count;
+    return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+  }
+
+  /** Takes tokens from the bucket, waiting until they are available. */
+  void acquire(long count) throws InterruptedException {
+    long wait = reserve(count);
+    if (wait > 0) {
+      TimeUnit.NANOSECONDS.sleep(wait);
+    }
+  }
+
+  /** Gives back tokens taken but not used, up to the capacity of the bucket. */
+  synchronized void refund(long count) {
+    refill();
+    tokens = Math.min(capacity, tokens + count);
+  }
+
+  /** Tokens in the bucket, negative while tokens taken are being waited for. */
+  synchronized long available() {
+    refill();
+    return (long) Math.floor(tokens);
+  }
+
+  private void refill() {
+    long now = nanoTime.getAsLong();
+    tokens = Math.min(capacity, tokens + (now - refilledAt) * tokensPerNano);
+    refilledAt = now;
+  }
+}
@@ -0,0 +1,367 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.Proxy;
+import java.net.URL;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.List;
+import java.util.Map;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.KeyManager;
+import javax.net.ssl.TrustManager;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RemoteSession;
+import org.eclipse.jgit.transport.RemoteSession2;
+import org.eclipse.jgit.transport.SshSessionFactory;
+import org.eclipse.jgit.transport.SshTransport;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportHttp;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.transport.http.HttpConnection;
+import org.eclipse.jgit.transport.http.HttpConnectionFactory;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Limits the rate of the bytes sent by a transport, by taking a token from a bucket for each byte
+ * written to the remote.
+ *
+ * <p>The streams to the remote are wrapped where JGit opens them: the SSH sessions of an {@link
+ * SshTransport} and the HTTP connections of a {@link TransportHttp}. The other transports are not
+ * limited.
+ */
+class TransportThrottle {
+  /** Bytes written at once, so that a large write is spread over time. */
+  static final int CHUNK_SIZE = 16 * 1024;
+
+  private TransportThrottle() {}
+
+  /**
+   * Limits the bytes sent by the transport to the rate of the bucket.
+   *
+   * @return whether the transport is limited.
+   */
+  static boolean apply(Transport tn, TokenBucket bytes) {
+    if (tn instanceof SshTransport) {
+      SshTransport ssh = (SshTransport) tn;
+      ssh.setSshSessionFactory(new ThrottledSessionFactory(ssh.getSshSessionFactory(), bytes));
+      return true;
+    }
+    if (tn instanceof TransportHttp) {
+      TransportHttp http = (TransportHttp) tn;
+      http.setHttpConnectionFactory(
+          new ThrottledConnectionFactory(http.getHttpConnectionFactory(), bytes));
+      return true;
+    }
+    return false;
+  }
+
+  static class ThrottledOutputStream extends FilterOutputStream {
+    private final TokenBucket bytes;
+
+    ThrottledOutputStream(OutputStream out, TokenBucket bytes) {
+      super(out);
+      this.bytes = bytes;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      acquire(1);
+      out.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int n = Math.min(len, CHUNK_SIZE);
+        acquire(n);
+        out.write(b, off, n);
+        off += n;
+        len -= n;
+      }
+    }
+
+    private void acquire(int count) throws IOException {
+      try {
+        bytes.acquire(count);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while limiting the transfer rate");
+      }
+    }
+  }
+
+  private static class ThrottledSessionFactory extends SshSessionFactory {
+    private final SshSessionFactory delegate;
+    private final TokenBucket bytes;
+
+    ThrottledSessionFactory(SshSessionFactory delegate, TokenBucket bytes) {
+      this.delegate = delegate;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public RemoteSession getSession(
+        URIish uri, CredentialsProvider credentialsProvider, FS fs, int tms)
+        throws TransportException {
+      return new ThrottledSession(delegate.getSession(uri, credentialsProvider, fs, tms), bytes);
+    }
+
+    @Override
+    public String getType() {
+      return delegate.getType();
+    }
+
+    @Override
+    public void releaseSession(RemoteSession session) {
+      if (session instanceof ThrottledSession) {
+        delegate.releaseSession(((ThrottledSession) session).delegate);
+      } else {
+        delegate.releaseSession(session);
+      }
+    }
+  }
+
+  private static class ThrottledSession implements RemoteSession2 {
+    private final RemoteSession delegate;
+    private final TokenBucket bytes;
+
+    ThrottledSession(RemoteSession delegate, TokenBucket bytes) {
+      this.delegate = delegate;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public Process exec(String commandName, int timeout) throws IOException {
+      return new ThrottledProcess(delegate.exec(commandName, timeout), bytes);
+    }
+
+    @Override
+    public Process exec(String commandName, Map<String, String> environment, int timeout)
+        throws IOException {
+      if (delegate instanceof RemoteSession2) {
+        return new ThrottledProcess(
+            ((RemoteSession2) delegate).exec(commandName, environment, timeout), bytes);
+      }
+      return exec(commandName, timeout);
+    }
+
+    @Override
+    public void disconnect() {
+      delegate.disconnect();
+    }
+  }
+
+  private static class ThrottledProcess extends Process {
+    private final Process delegate;
+    private final OutputStream out;
+
+    ThrottledProcess(Process delegate, TokenBucket bytes) {
+      this.delegate = delegate;
+      this.out = new ThrottledOutputStream(delegate.getOutputStream(), bytes);
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      return out;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return delegate.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return delegate.getErrorStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+      return delegate.waitFor();
+    }
+
+    @Override
+    public int exitValue() {
+      return delegate.exitValue();
+    }
+
+    @Override
+    public void destroy() {
+      delegate.destroy();
+    }
+  }
+
+  private static class ThrottledConnectionFactory implements HttpConnectionFactory {
+    private final HttpConnectionFactory delegate;
+    private final TokenBucket bytes;
+
+    ThrottledConnectionFactory(HttpConnectionFactory delegate, TokenBucket bytes) {
+      this.delegate = delegate;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public HttpConnection create(URL url) throws IOException {
+      return new ThrottledConnection(delegate.create(url), bytes);
+    }
+
+    @Override
+    public HttpConnection create(URL url, Proxy proxy) throws IOException {
+      return new ThrottledConnection(delegate.create(url, proxy), bytes);
+    }
+  }
+
+  private static class ThrottledConnection implements HttpConnection {
+    private final HttpConnection delegate;
+    private final TokenBucket bytes;
+
+    ThrottledConnection(HttpConnection delegate, TokenBucket bytes) {
+      this.delegate = delegate;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+      return new ThrottledOutputStream(delegate.getOutputStream(), bytes);
+    }
+
+    @Override
+    public int getResponseCode() throws IOException {
+      return delegate.getResponseCode();
+    }
+
+    @Override
+    public URL getURL() {
+      return delegate.getURL();
+    }
+
+    @Override
+    public String getResponseMessage() throws IOException {
+      return delegate.getResponseMessage();
+    }
+
+    @Override
+    public Map<String, List<String>> getHeaderFields() {
+      return delegate.getHeaderFields();
+    }
+
+    @Override
+    public void setRequestProperty(String key, String value) {
+      delegate.setRequestProperty(key, value);
+    }
+
+    @Override
+    public void setRequestMethod(String method) throws ProtocolException {
+      delegate.setRequestMethod(method);
+    }
+
+    @Override
+    public void setUseCaches(boolean usecaches) {
+      delegate.setUseCaches(usecaches);
+    }
+
+    @Override
+    public void setConnectTimeout(int timeout) {
+      delegate.setConnectTimeout(timeout);
+    }
+
+    @Override
+    public void setReadTimeout(int timeout) {
+      delegate.setReadTimeout(timeout);
+    }
+
+    @Override
+    public String getContentType() {
+      return delegate.getContentType();
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+      return delegate.getInputStream();
+    }
+
+    @Override
+    public String getHeaderField(String name) {
+      return delegate.getHeaderField(name);
+    }
+
+    @Override
+    public List<String> getHeaderFields(String name) {
+      return delegate.getHeaderFields(name);
+    }
+
+    @Override
+    public int getContentLength() {
+      return delegate.getContentLength();
+    }
+
+    @Override
+    public void setInstanceFollowRedirects(boolean followRedirects) {
+      delegate.setInstanceFollowRedirects(followRedirects);
+    }
+
+    @Override
+    public void setDoOutput(boolean dooutput) {
+      delegate.setDoOutput(dooutput);
+    }
+
+    @Override
+    public void setFixedLengthStreamingMode(int contentLength) {
+      delegate.setFixedLengthStreamingMode(contentLength);
+    }
+
+    @Override
+    public void setChunkedStreamingMode(int chunklen) {
+      delegate.setChunkedStreamingMode(chunklen);
+    }
+
+    @Override
+    public String getRequestMethod() {
+      return delegate.getRequestMethod();
+    }
+
+    @Override
+    public boolean usingProxy() {
+      return delegate.usingProxy();
+    }
+
+    @Override
+    public void connect() throws IOException {
+      delegate.connect();
+    }
+
+    @Override
+    public void configure(KeyManager[] km, TrustManager[] tm, SecureRandom random)
+        throws NoSuchAlgorithmException, KeyManagementException {
+      delegate.configure(km, tm, random);
+    }
+
+    @Override
+    public void setHostnameVerifier(HostnameVerifier hostnameverifier)
+        throws NoSuchAlgorithmException, KeyManagementException {
+      delegate.setHostnameVerifier(hostnameverifier);
+    }
+  }
+}
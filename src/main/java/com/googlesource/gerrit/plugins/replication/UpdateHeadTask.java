@@ -28,6 +28,7 @@ import org.eclipse.jgit.transport.URIish;
 
 public class UpdateHeadTask implements Runnable {
   private final DynamicItem<AdminApiFactory> adminApiFactory;
+  private final HostConnectionLimit hostLimit;
   private final RemoteConfig remoteConfig;
   private final int id;
   private final URIish replicateURI;
@@ -41,12 +42,14 @@ public class UpdateHeadTask implements Runnable {
   @Inject
   UpdateHeadTask(
       DynamicItem<AdminApiFactory> adminApiFactory,
+      HostConnectionLimit hostLimit,
       RemoteConfig remoteConfig,
       IdGenerator ig,
       @Assisted URIish replicateURI,
       @Assisted Project.NameKey project,
       @Assisted String newHead) {
     this.adminApiFactory = adminApiFactory;
+    this.hostLimit = hostLimit;
     this.remoteConfig = remoteConfig;
     this.id = ig.next();
     this.replicateURI = replicateURI;
@@ -56,6 +59,17 @@ public class UpdateHeadTask implements Runnable {
 
   @Override
   public void run() {
+    try {
+      hostLimit.runConnected(replicateURI, this::updateHead);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      repLog.atWarning().log(
+          "Interrupted while waiting to update HEAD of project %s on remote site %s.",
+          project, replicateURI);
+    }
+  }
+
+  private void updateHead() {
     Optional<AdminApi> adminApi =
         adminApiFactory.get().create(replicateURI, remoteConfig.getName());
     if (adminApi.isPresent()) {
@@ -0,0 +1,67 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates virtual threads on the Java runtimes providing them, from Java 21.
+ *
+ * <p>The virtual threads are looked up by reflection so that the plugin still builds and runs on
+ * the older runtimes, where they are not available.
+ */
+class VirtualThreads {
+  private VirtualThreads() {}
+
+  /**
+   * Factory of virtual threads standing for the threads of another factory. Each thread of the
+   * factory is created, without being started, and the virtual thread takes its name and its
+   * handler of uncaught exceptions, and runs it.
+   *
+   * @return the factory, or empty when the runtime does not provide virtual threads.
+   */
+  static Optional<ThreadFactory> wrap(ThreadFactory platform) {
+    Method ofVirtual;
+    Method name;
+    Method handler;
+    Method unstarted;
+    try {
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+      name = builderClass.getMethod("name", String.class);
+      handler =
+          builderClass.getMethod("uncaughtExceptionHandler", Thread.UncaughtExceptionHandler.class);
+      unstarted = builderClass.getMethod("unstarted", Runnable.class);
+      ofVirtual.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      // Before Java 21, or with the preview feature disabled on Java 19 and 20
+      return Optional.empty();
+    }
+    return Optional.of(
+        task -> {
+          Thread thread = platform.newThread(task);
+          try {
+            Object builder = ofVirtual.invoke(null);
+            name.invoke(builder, thread.getName());
+            handler.invoke(builder, thread.getUncaughtExceptionHandler());
+            return (Thread) unstarted.invoke(builder, thread);
+          } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create a virtual thread", e);
+          }
+        });
+  }
+}
@@ -23,5 +23,6 @@ public class ApiModule extends AbstractModule {
     DynamicItem.itemOf(binder(), ReplicationPushFilter.class);
     DynamicItem.itemOf(binder(), ReplicationConfigOverrides.class);
     DynamicItem.itemOf(binder(), ReplicationRemotesApi.class);
+    DynamicItem.itemOf(binder(), ReplicationTaskStore.class);
   }
 }
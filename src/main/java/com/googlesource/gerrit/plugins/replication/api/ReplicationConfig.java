@@ -121,6 +121,20 @@ public interface ReplicationConfig {
    */
   int getAutoRepairConcurrencyLimit();
 
+  /**
+   * Maximum number of pushes running at once to all the remotes.
+   *
+   * @return push limit, zero if unlimited.
+   */
+  int getMaxConcurrentPushes();
+
+  /**
+   * Maximum number of connections opened at once to a remote host by all the remotes.
+   *
+   * @return connection limit, zero if unlimited.
+   */
+  int getMaxConnectionsPerHost();
+
   /**
    * Current logical version string of the current configuration loaded in memory, depending on the
    * actual implementation of the configuration on the persistent storage.
@@ -0,0 +1,92 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication.api;
+
+import com.google.gerrit.extensions.annotations.ExtensionPoint;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Store of the replication tasks, used instead of the file based storage when {@code
+ * replication.taskStorage} is set to {@code memory}.
+ *
+ * <p>A task is waiting until a push of its refs starts, and running until the push completes. The
+ * store can be bound by another plugin, for instance to keep the tasks in an external store. While
+ * none is bound, the replication plugin keeps the tasks in memory. The file based and journal
+ * storages do not use the store.
+ *
+ * <p>The methods may be called concurrently by the replication threads.
+ */
+@ExtensionPoint
+public interface ReplicationTaskStore {
+
+  /** The refs of a project to push to a URI of a remote. */
+  interface Task {
+    /** Identifies the task: tasks with the same key are the same task. */
+    String key();
+
+    String project();
+
+    Set<String> refs();
+
+    String uri();
+
+    String remote();
+  }
+
+  /**
+   * Adds a task to the waiting ones, if not already waiting.
+   *
+   * @return whether the task is waiting.
+   */
+  boolean create(Task task);
+
+  /**
+   * Moves a waiting task to the running ones.
+   *
+   * @return false if the task is not waiting, for instance as already started.
+   */
+  boolean start(Task task);
+
+  /**
+   * Moves a running task back to the waiting ones, to be pushed again.
+   *
+   * @return false if the task is not running.
+   */
+  boolean reset(Task task);
+
+  /**
+   * Removes a running task once pushed.
+   *
+   * @return false if the task is not running.
+   */
+  boolean finish(Task task);
+
+  boolean isWaiting(Task task);
+
+  Stream<? extends Task> streamWaiting();
+
+  Stream<? extends Task> streamRunning();
+
+  /**
+   * Resets to waiting the running tasks of the given remotes, left by a previous run. Called on
+   * startup before the waiting tasks are replayed.
+   *
+   * @return the number of tasks reset.
+   */
+  default long recover(Set<String> remotes) {
+    return streamRunning().filter(t -> remotes.contains(t.remote())).filter(this::reset).count();
+  }
+}
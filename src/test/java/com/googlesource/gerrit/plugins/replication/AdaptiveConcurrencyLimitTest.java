@@ -0,0 +1,99 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+  private static final long THRESHOLD_MS = 1_000;
+
+  private long nanos;
+  private List<Integer> changes;
+  private AdaptiveConcurrencyLimit limit;
+
+  @Before
+  public void setUp() {
+    nanos = 0;
+    changes = new ArrayList<>();
+    limit = newLimit(4, 2, 8);
+  }
+
+  @Test
+  public void limitGrowsByOneWhenAsManyPushesAsAllowedSucceed() {
+    for (int i = 0; i < 4; i++) {
+      limit.onSuccess(tick(), 10);
+    }
+    assertThat(limit.get()).isEqualTo(5);
+    assertThat(changes).containsExactly(5);
+  }
+
+  @Test
+  public void limitNeverExceedsMax() {
+    for (int i = 0; i < 1000; i++) {
+      limit.onSuccess(tick(), 10);
+    }
+    assertThat(limit.get()).isEqualTo(8);
+    assertThat(changes).containsExactly(5, 6, 7, 8).inOrder();
+  }
+
+  @Test
+  public void failureHalvesLimitDownToMin() {
+    limit = newLimit(8, 3, 8);
+    limit.onFailure(tick());
+    assertThat(limit.get()).isEqualTo(4);
+    limit.onFailure(tick());
+    assertThat(limit.get()).isEqualTo(3);
+    assertThat(changes).containsExactly(4, 3).inOrder();
+  }
+
+  @Test
+  public void slowPushDecreasesLimit() {
+    limit.onSuccess(tick(), THRESHOLD_MS + 1);
+    assertThat(limit.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void pushesStartedBeforeDecreaseDoNotDecreaseAgain() {
+    limit = newLimit(8, 1, 8);
+    long startedBefore = tick();
+    limit.onFailure(tick());
+    limit.onFailure(startedBefore);
+    limit.onFailure(startedBefore);
+    assertThat(limit.get()).isEqualTo(4);
+
+    limit.onFailure(tick());
+    assertThat(limit.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void initialLimitIsWithinBounds() {
+    assertThat(newLimit(1, 2, 8).get()).isEqualTo(2);
+    assertThat(newLimit(20, 2, 8).get()).isEqualTo(8);
+  }
+
+  private AdaptiveConcurrencyLimit newLimit(int initial, int min, int max) {
+    return new AdaptiveConcurrencyLimit(initial, min, max, THRESHOLD_MS, changes::add, () -> nanos);
+  }
+
+  /** Moves the clock forward, returning the new time. */
+  private long tick() {
+    return ++nanos;
+  }
+}
@@ -0,0 +1,85 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.entities.Project;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AdaptiveReplicationDelayTest {
+  private static final long MIN_MS = 1_000;
+  private static final long MAX_MS = 60_000;
+  private static final Project.NameKey BUSY = Project.nameKey("busy");
+  private static final Project.NameKey IDLE = Project.nameKey("idle");
+
+  private long millis;
+  private AdaptiveReplicationDelay delay;
+
+  @Before
+  public void setUp() {
+    millis = 0;
+    delay = new AdaptiveReplicationDelay(MIN_MS, MAX_MS, () -> millis);
+  }
+
+  @Test
+  public void unknownProjectIsDelayedByMinimum() {
+    assertThat(delay.getDelayMillis(IDLE)).isEqualTo(MIN_MS);
+  }
+
+  @Test
+  public void busyProjectIsDelayedUpToMaximum() {
+    for (int i = 0; i < 600; i++) {
+      delay.recordUpdate(BUSY);
+      millis += 100;
+    }
+    assertThat(delay.getDelayMillis(BUSY)).isEqualTo(MAX_MS);
+    assertThat(delay.getDelayMillis(IDLE)).isEqualTo(MIN_MS);
+  }
+
+  @Test
+  public void delayGrowsWithRateOfUpdates() {
+    long previous = delay.getDelayMillis(BUSY);
+    for (int i = 0; i < 10; i++) {
+      delay.recordUpdate(BUSY);
+      millis += 1_000;
+      long next = delay.getDelayMillis(BUSY);
+      assertThat(next).isGreaterThan(previous);
+      assertThat(next).isAtMost(MAX_MS);
+      previous = next;
+    }
+  }
+
+  @Test
+  public void delayDecaysBackToMinimumWhenIdle() {
+    delay.recordUpdate(BUSY);
+    delay.recordUpdate(BUSY);
+    long busy = delay.getDelayMillis(BUSY);
+    assertThat(busy).isGreaterThan(MIN_MS);
+
+    millis += AdaptiveReplicationDelay.RATE_WINDOW_MS;
+    assertThat(delay.getDelayMillis(BUSY)).isLessThan(busy);
+    millis += 20 * AdaptiveReplicationDelay.RATE_WINDOW_MS;
+    assertThat(delay.getDelayMillis(BUSY)).isEqualTo(MIN_MS);
+  }
+
+  @Test
+  public void maximumIsNeverBelowMinimum() {
+    delay = new AdaptiveReplicationDelay(MIN_MS, 0, () -> millis);
+    delay.recordUpdate(BUSY);
+    assertThat(delay.getDelayMillis(BUSY)).isEqualTo(MIN_MS);
+  }
+}
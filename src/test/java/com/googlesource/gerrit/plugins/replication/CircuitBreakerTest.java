@@ -0,0 +1,119 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+  private static final int THRESHOLD = 3;
+  private static final long PROBE_INTERVAL_SECS = 60;
+  private static final String SERVER = "replica:22";
+  private static final String OTHER_SERVER = "other:22";
+
+  private long nanos;
+  private CircuitBreaker breaker;
+
+  @Before
+  public void setUp() {
+    nanos = 0;
+    breaker = new CircuitBreaker("test", THRESHOLD, PROBE_INTERVAL_SECS, SECONDS, () -> nanos);
+  }
+
+  @Test
+  public void urisOfSameServerShareCircuit() throws Exception {
+    assertThat(CircuitBreaker.serverOf(new URIish("ssh://replica/project1.git")))
+        .isEqualTo(CircuitBreaker.serverOf(new URIish("ssh://replica/project2.git")));
+    assertThat(CircuitBreaker.serverOf(new URIish("ssh://replica/project1.git")))
+        .isNotEqualTo(CircuitBreaker.serverOf(new URIish("ssh://other/project1.git")));
+  }
+
+  @Test
+  public void urisWithTheDefaultPortOrAnotherCaseShareCircuit() throws Exception {
+    String server = CircuitBreaker.serverOf(new URIish("ssh://replica/project1.git"));
+    assertThat(CircuitBreaker.serverOf(new URIish("ssh://replica:22/project2.git")))
+        .isEqualTo(server);
+    assertThat(CircuitBreaker.serverOf(new URIish("ssh://Replica/project2.git"))).isEqualTo(server);
+    assertThat(CircuitBreaker.serverOf(new URIish("replica:project2.git"))).isEqualTo(server);
+    assertThat(CircuitBreaker.serverOf(new URIish("ssh://replica:29418/project1.git")))
+        .isNotEqualTo(server);
+  }
+
+  @Test
+  public void opensAfterConsecutiveFailures() {
+    fail(THRESHOLD - 1);
+    assertThat(breaker.tryAcquire(SERVER, 10)).isTrue();
+    fail(1);
+    assertThat(breaker.isOpen(SERVER)).isTrue();
+    assertThat(breaker.tryAcquire(SERVER, 10)).isFalse();
+    assertThat(breaker.tryAcquire(OTHER_SERVER, 10)).isTrue();
+  }
+
+  @Test
+  public void successResetsFailures() {
+    fail(THRESHOLD - 1);
+    breaker.onSuccess(SERVER);
+    fail(THRESHOLD - 1);
+    assertThat(breaker.isOpen(SERVER)).isFalse();
+  }
+
+  @Test
+  public void singleProbeIsAllowedAfterInterval() {
+    fail(THRESHOLD);
+    assertThat(breaker.getProbeDelayMillis(SERVER)).isEqualTo(SECONDS.toMillis(60));
+
+    nanos += SECONDS.toNanos(PROBE_INTERVAL_SECS);
+    assertThat(breaker.getProbeDelayMillis(SERVER)).isEqualTo(0);
+    assertThat(breaker.tryAcquire(SERVER, 10)).isTrue();
+    assertThat(breaker.tryAcquire(SERVER, 11)).isFalse();
+  }
+
+  @Test
+  public void probeCompletedClosesCircuit() {
+    fail(THRESHOLD);
+    nanos += SECONDS.toNanos(PROBE_INTERVAL_SECS);
+    breaker.tryAcquire(SERVER, 10);
+
+    breaker.onFinished(SERVER, 11);
+    assertThat(breaker.isOpen(SERVER)).isTrue();
+    breaker.onFinished(SERVER, 10);
+    assertThat(breaker.isOpen(SERVER)).isFalse();
+    assertThat(breaker.tryAcquire(SERVER, 11)).isTrue();
+  }
+
+  @Test
+  public void probeFailedReopensCircuitForAnotherInterval() {
+    fail(THRESHOLD);
+    nanos += SECONDS.toNanos(PROBE_INTERVAL_SECS);
+    breaker.tryAcquire(SERVER, 10);
+
+    breaker.onFailure(SERVER, 10);
+    breaker.onFinished(SERVER, 10);
+    assertThat(breaker.isOpen(SERVER)).isTrue();
+    assertThat(breaker.tryAcquire(SERVER, 11)).isFalse();
+    nanos += SECONDS.toNanos(PROBE_INTERVAL_SECS);
+    assertThat(breaker.tryAcquire(SERVER, 11)).isTrue();
+  }
+
+  private void fail(int times) {
+    for (int i = 0; i < times; i++) {
+      breaker.onFailure(SERVER, i + 1);
+    }
+  }
+}
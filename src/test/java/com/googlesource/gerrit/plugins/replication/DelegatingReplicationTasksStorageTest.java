@@ -0,0 +1,180 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertThatStream;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.getUrish;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.gerrit.extensions.registration.DynamicItem;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import com.googlesource.gerrit.plugins.replication.api.ReplicationTaskStore;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DelegatingReplicationTasksStorageTest {
+  private static final String PROJECT = "myProject";
+  private static final String REMOTE = "myDest";
+  private static final ReplicateRefUpdate REF_UPDATE =
+      ReplicateRefUpdate.create(
+          PROJECT, Set.of("myRef"), getUrish("http://example.com/" + PROJECT + ".git"), REMOTE);
+  private static final ReplicateRefUpdate REF_UPDATE_2 =
+      ReplicateRefUpdate.create(
+          PROJECT, Set.of("myRef2"), getUrish("http://example.com/" + PROJECT + ".git"), REMOTE);
+  private static final UriUpdates URI_UPDATES = new TestUriUpdates(REF_UPDATE);
+
+  private FileSystem fileSystem;
+  private Path refUpdates;
+  private InMemoryReplicationTaskStore store;
+  private DelegatingReplicationTasksStorage storage;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    refUpdates = fileSystem.getPath("replication_site").resolve("ref-updates");
+    store = new InMemoryReplicationTaskStore();
+    storage = new DelegatingReplicationTasksStorage(refUpdates, store);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fileSystem.close();
+  }
+
+  @Test
+  public void inMemoryStoreIsUsedWhileNoStoreIsBound() {
+    storage.setBoundStore(DynamicItem.itemOf(ReplicationTaskStore.class, null));
+    storage.create(REF_UPDATE);
+
+    assertThat(store.isWaiting(REF_UPDATE)).isTrue();
+  }
+
+  @Test
+  public void storeBoundByAnotherPluginIsUsed() {
+    InMemoryReplicationTaskStore bound = new InMemoryReplicationTaskStore();
+    storage.setBoundStore(DynamicItem.itemOf(ReplicationTaskStore.class, bound));
+    storage.create(REF_UPDATE);
+
+    assertThat(bound.isWaiting(REF_UPDATE)).isTrue();
+    assertThat(store.isWaiting(REF_UPDATE)).isFalse();
+    assertThatStream(storage.streamWaiting()).containsExactly(REF_UPDATE);
+  }
+
+  @Test
+  public void canCompleteTask() {
+    storage.create(REF_UPDATE);
+    assertThat(storage.isWaiting(URI_UPDATES)).isTrue();
+    assertThatStream(storage.streamWaiting()).containsExactly(REF_UPDATE);
+
+    assertThat(storage.start(URI_UPDATES)).containsExactly(REF_UPDATE.refs());
+    assertThat(storage.isWaiting(URI_UPDATES)).isFalse();
+    assertThatStream(storage.streamRunning()).containsExactly(REF_UPDATE);
+
+    storage.finish(URI_UPDATES);
+    assertThatStream(storage.streamWaiting()).isEmpty();
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void duplicateTaskIsStoredOnce() {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE);
+    assertThatStream(storage.streamWaiting()).containsExactly(REF_UPDATE);
+  }
+
+  @Test
+  public void resetTaskIsWaitingAgain() {
+    storage.create(REF_UPDATE);
+    storage.start(URI_UPDATES);
+
+    storage.reset(URI_UPDATES);
+    assertThatStream(storage.streamWaiting()).containsExactly(REF_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void runningTasksOfGivenRemotesAreRecovered() {
+    ReplicateRefUpdate other =
+        ReplicateRefUpdate.create(
+            PROJECT, Set.of("myRef"), getUrish("http://example.com/other.git"), "otherDest");
+    storage.create(REF_UPDATE);
+    storage.create(other);
+    storage.start(new TestUriUpdates(REF_UPDATE));
+    storage.start(new TestUriUpdates(other));
+
+    storage.recoverAll(Set.of(REMOTE));
+    assertThatStream(storage.streamWaiting()).containsExactly(REF_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(other);
+  }
+
+  @Test
+  public void waitingTasksCanBeCompacted() {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+
+    assertThat(storage.compactWaiting(Set.of(REMOTE), 10)).isEqualTo(2);
+    assertThat(storage.streamWaiting().findFirst().get().refs()).containsExactly("myRef", "myRef2");
+  }
+
+  @Test
+  public void statsCountTasksPerRemote() {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+    storage.start(URI_UPDATES);
+
+    assertThat(storage.getTaskStats().get(REMOTE).waiting()).isEqualTo(1);
+    assertThat(storage.getTaskStats().get(REMOTE).running()).isEqualTo(1);
+  }
+
+  @Test
+  public void taskIsStartedOnceWhenConcurrentlyStarted() throws Exception {
+    storage.create(REF_UPDATE);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Set<ImmutableSet<String>>>> starts = new ArrayList<>();
+      for (int i = 0; i < 16; i++) {
+        starts.add(executor.submit(() -> storage.start(URI_UPDATES)));
+      }
+      int started = 0;
+      for (Future<Set<ImmutableSet<String>>> start : starts) {
+        started += start.get().size();
+      }
+      assertThat(started).isEqualTo(1);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void noFileIsWritten() {
+    storage.create(REF_UPDATE);
+    storage.start(URI_UPDATES);
+    storage.finish(URI_UPDATES);
+    assertThat(Files.exists(refUpdates)).isFalse();
+  }
+}
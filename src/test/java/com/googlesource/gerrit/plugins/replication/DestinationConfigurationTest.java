@@ -99,6 +99,26 @@ public class DestinationConfigurationTest {
     assertThat(actual).isEqualTo(globalPushBatchSize);
   }
 
+  @Test
+  public void shouldDefaultPriorityRefsToBranchesAndProjectConfig() {
+    assertThat(objectUnderTest.getPriorityThreads()).isEqualTo(0);
+    assertThat(matchesPriorityRefs("refs/heads/master")).isTrue();
+    assertThat(matchesPriorityRefs("refs/meta/config")).isTrue();
+    assertThat(matchesPriorityRefs("refs/changes/01/1/1")).isFalse();
+  }
+
+  @Test
+  public void shouldReplaceDefaultPriorityRefsWhenConfigured() {
+    // given
+    when(cfgMock.getStringList("remote", REMOTE, "priorityRefsPattern"))
+        .thenReturn(new String[] {"refs/tags/.*"});
+    objectUnderTest = new DestinationConfiguration(remoteConfigMock, cfgMock);
+
+    // when / then
+    assertThat(matchesPriorityRefs("refs/tags/v1.0")).isTrue();
+    assertThat(matchesPriorityRefs("refs/heads/master")).isFalse();
+  }
+
   @Test
   public void shouldDefaultUrlDistributionToAll() {
     assertThat(objectUnderTest.getUrlDistributionStrategy()).isEqualTo(UrlDistributionStrategy.ALL);
@@ -114,4 +134,8 @@ public class DestinationConfigurationTest {
     assertThat(objectUnderTest.getUrlDistributionStrategy())
         .isEqualTo(UrlDistributionStrategy.ROUND_ROBIN);
   }
+
+  private boolean matchesPriorityRefs(String ref) {
+    return objectUnderTest.priorityRefsPattern().stream().anyMatch(p -> p.matcher(ref).matches());
+  }
 }
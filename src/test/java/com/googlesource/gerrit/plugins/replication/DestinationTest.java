@@ -0,0 +1,433 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.endsWith;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doCallRealMethod;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.google.gerrit.server.git.WorkQueue;
+import com.google.inject.Injector;
+import com.google.inject.Module;
+import java.nio.file.FileSystem;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DestinationTest {
+  private static final String REMOTE = "replica";
+
+  /** Records the pushes scheduled on the pool of the destination instead of running them. */
+  private static class RecordingExecutorService extends FakeExecutorService {
+    final List<Runnable> scheduled = new ArrayList<>();
+
+    @Override
+    public synchronized ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+      scheduled.add(command);
+      return null;
+    }
+
+    @Override
+    public synchronized List<Runnable> shutdownNow() {
+      return new ArrayList<>(scheduled);
+    }
+  }
+
+  private FileSystem fileSystem;
+  private ReplicationTasksStorage storage;
+  private Injector childInjector;
+  private RecordingExecutorService pool;
+  private Config config;
+  private URIish uri;
+  private int nextId;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    storage = new ReplicationTasksStorage(fileSystem.getPath("replication_site"));
+    childInjector = mock(Injector.class);
+    pool = new RecordingExecutorService();
+    config = new Config();
+    config.setString("remote", REMOTE, "url", "ssh://replica.example.com/${name}.git");
+    uri = new URIish("ssh://replica.example.com/project.git");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fileSystem.close();
+  }
+
+  @Test
+  public void pushesToTheSameUriRunOneAtATime() throws Exception {
+    Destination destination = newDestination();
+    int threads = 8;
+    int rounds = 200;
+    List<List<PushOne>> pushes = new ArrayList<>();
+    for (int t = 0; t < threads; t++) {
+      List<PushOne> ofThread = new ArrayList<>();
+      for (int r = 0; r < rounds; r++) {
+        ofThread.add(newPush());
+      }
+      pushes.add(ofThread);
+    }
+
+    AtomicInteger running = new AtomicInteger();
+    AtomicInteger overlaps = new AtomicInteger();
+    AtomicInteger completed = new AtomicInteger();
+    CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<?>> results = new ArrayList<>();
+      for (List<PushOne> ofThread : pushes) {
+        results.add(
+            executor.submit(
+                () -> {
+                  start.await();
+                  for (PushOne push : ofThread) {
+                    if (destination.requestRunway(push).isAllowed()) {
+                      if (running.incrementAndGet() > 1) {
+                        overlaps.incrementAndGet();
+                      }
+                      Thread.yield();
+                      running.decrementAndGet();
+                      destination.notifyFinished(push);
+                      completed.incrementAndGet();
+                    }
+                  }
+                  return null;
+                }));
+      }
+      start.countDown();
+      for (Future<?> result : results) {
+        result.get(1, TimeUnit.MINUTES);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    assertThat(overlaps.get()).isEqualTo(0);
+    assertThat(completed.get()).isGreaterThan(0);
+    assertThat(destination.getQueue().inFlight).isEmpty();
+  }
+
+  @Test
+  public void pushCollidingIsParkedUntilTheInFlightPushFinishes() throws Exception {
+    Destination destination = newDestination();
+    PushOne inFlight = newPush();
+    PushOne colliding = newPush();
+    assertThat(destination.requestRunway(inFlight).isAllowed()).isTrue();
+    assertThat(destination.requestRunway(colliding).isAllowed()).isFalse();
+
+    assertThat(destination.reschedule(colliding, Destination.RetryReason.COLLISION)).isTrue();
+    assertThat(pool.scheduled).isEmpty();
+
+    destination.notifyFinished(inFlight);
+    assertThat(pool.scheduled).containsExactly(colliding);
+    destination.notifyFinished(inFlight);
+    assertThat(pool.scheduled).containsExactly(colliding);
+  }
+
+  @Test
+  public void pushCollidingWithAFinishedPushIsScheduledAtOnce() throws Exception {
+    Destination destination = newDestination();
+    PushOne inFlight = newPush();
+    PushOne colliding = newPush();
+    assertThat(destination.requestRunway(inFlight).isAllowed()).isTrue();
+    assertThat(destination.requestRunway(colliding).isAllowed()).isFalse();
+    destination.notifyFinished(inFlight);
+
+    assertThat(destination.reschedule(colliding, Destination.RetryReason.COLLISION)).isTrue();
+    assertThat(pool.scheduled).containsExactly(colliding);
+  }
+
+  @Test
+  public void pushesNotStartedGiveBackTheirStart() throws Exception {
+    config.setInt("remote", REMOTE, "threads", 2);
+    config.setInt("remote", REMOTE, "maxPushRate", 1);
+    when(childInjector.getInstance(HostConnectionLimit.class))
+        .thenReturn(new HostConnectionLimit(() -> 1));
+    Destination destination = newDestination();
+    PushOne running = newPush(uri);
+    PushOne other = newPush(new URIish("ssh://replica.example.com/other.git"));
+    assertThat(destination.requestRunway(running).isAllowed()).isTrue();
+
+    for (int i = 0; i < 5; i++) {
+      assertThat(destination.requestRunway(other).isHostBusy()).isTrue();
+    }
+
+    destination.notifyFinished(running);
+    assertThat(destination.requestRunway(other).isAllowed()).isTrue();
+    assertThat(
+            destination
+                .requestRunway(newPush(new URIish("ssh://replica.example.com/third.git")))
+                .isThrottled())
+        .isTrue();
+  }
+
+  @Test
+  public void branchUpdateOvertakesTheChangesFillingTheSharedPool() throws Exception {
+    config.setInt("remote", REMOTE, "threads", 1);
+    config.setInt("remote", REMOTE, "priorityThreads", 1);
+    ScheduledExecutorService shared = Executors.newSingleThreadScheduledExecutor();
+    ScheduledExecutorService priority = Executors.newSingleThreadScheduledExecutor();
+    CountDownLatch changesRunning = new CountDownLatch(1);
+    CountDownLatch changesDone = new CountDownLatch(1);
+    List<String> ran = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch branchPushed = new CountDownLatch(1);
+    try {
+      Destination destination = newDestination(shared, priority);
+      Set<String> changes = Set.of("refs/changes/01/1/1");
+      Set<String> branch = Set.of("refs/heads/master");
+      assertThat(destination.isPriority(changes, false)).isFalse();
+      assertThat(destination.isPriority(branch, false)).isTrue();
+      assertThat(destination.isPriority(branch, true)).isFalse();
+
+      PushOne running = newLanePush("running", false);
+      doAnswer(
+              invocation -> {
+                changesRunning.countDown();
+                changesDone.await();
+                return null;
+              })
+          .when(running)
+          .run();
+      destination.reschedule(running, Destination.RetryReason.COLLISION);
+      assertThat(changesRunning.await(10, TimeUnit.SECONDS)).isTrue();
+      PushOne queued = newLanePush("queued", false);
+      doAnswer(invocation -> ran.add("queued")).when(queued).run();
+      destination.reschedule(queued, Destination.RetryReason.COLLISION);
+
+      PushOne master = newLanePush("master", true);
+      doAnswer(
+              invocation -> {
+                ran.add("master");
+                branchPushed.countDown();
+                return null;
+              })
+          .when(master)
+          .run();
+      destination.reschedule(master, Destination.RetryReason.COLLISION);
+
+      assertThat(branchPushed.await(10, TimeUnit.SECONDS)).isTrue();
+      assertThat(ran).containsExactly("master");
+    } finally {
+      changesDone.countDown();
+      shared.shutdownNow();
+      priority.shutdownNow();
+    }
+  }
+
+  @Test
+  public void canceledPushGivesBackItsReservedStart() throws Exception {
+    Destination destination = newDestinationWithStartsTaken();
+    PushOne throttled = newPush(uri);
+    assertThat(destination.requestRunway(throttled).isThrottled()).isTrue();
+
+    destination.pushWasCanceled(throttled);
+
+    assertNextStartIsDelayedByOnePush(destination);
+  }
+
+  @Test
+  public void consolidatedPushGivesBackItsReservedStart() throws Exception {
+    Destination destination = newDestinationWithStartsTaken();
+    PushOne throttled = newPush(uri);
+    assertThat(destination.requestRunway(throttled).isThrottled()).isTrue();
+    assertThat(destination.reschedule(throttled, Destination.RetryReason.RATE_LIMITED)).isTrue();
+
+    assertThat(destination.reschedule(newPush(uri), Destination.RetryReason.COLLISION)).isTrue();
+
+    assertNextStartIsDelayedByOnePush(destination);
+  }
+
+  @Test
+  public void canceledPushReleasesItsRunningPush() throws Exception {
+    when(childInjector.getInstance(PushAdmission.class)).thenReturn(new PushAdmission(() -> 1));
+    Destination destination = newDestination();
+    PushOne admitted = newAdmittedPendingPush(destination);
+
+    destination.pushWasCanceled(admitted);
+
+    assertThat(
+            destination
+                .requestRunway(newPush(new URIish("ssh://replica.example.com/third.git")))
+                .isAllowed())
+        .isTrue();
+  }
+
+  @Test
+  public void pushesDroppedOnShutdownReleaseTheirRunningPush() throws Exception {
+    when(childInjector.getInstance(PushAdmission.class)).thenReturn(new PushAdmission(() -> 1));
+    Destination destination = newDestination();
+    PushOne admitted = newAdmittedPendingPush(destination);
+    doAnswer(
+            invocation -> {
+              destination.pushWasCanceled(admitted);
+              return null;
+            })
+        .when(admitted)
+        .cancel();
+
+    destination.shutdown();
+
+    assertThat(
+            newDestination()
+                .requestRunway(newPush(new URIish("ssh://replica.example.com/third.git")))
+                .isAllowed())
+        .isTrue();
+  }
+
+  @Test
+  public void canceledPushReleasesItsConnection() throws Exception {
+    when(childInjector.getInstance(HostConnectionLimit.class))
+        .thenReturn(new HostConnectionLimit(() -> 1));
+    Destination destination = newDestination();
+    PushOne running = newPush(uri);
+    PushOne waiting = newPush(new URIish("ssh://replica.example.com/other.git"));
+    assertThat(destination.requestRunway(running).isAllowed()).isTrue();
+    assertThat(destination.requestRunway(waiting).isHostBusy()).isTrue();
+    assertThat(destination.reschedule(waiting, Destination.RetryReason.HOST_BUSY)).isTrue();
+    destination.notifyFinished(running);
+    assertThat(waiting.isConnected()).isTrue();
+
+    destination.pushWasCanceled(waiting);
+
+    assertThat(
+            destination
+                .requestRunway(newPush(new URIish("ssh://replica.example.com/third.git")))
+                .isAllowed())
+        .isTrue();
+  }
+
+  /** A destination starting one push a minute, whose starts were all taken. */
+  private Destination newDestinationWithStartsTaken() throws Exception {
+    config.setInt("remote", REMOTE, "threads", 2);
+    config.setInt("remote", REMOTE, "maxPushRate", 1);
+    Destination destination = newDestination();
+    for (String name : List.of("first", "second")) {
+      assertThat(
+              destination
+                  .requestRunway(newPush(new URIish("ssh://replica.example.com/" + name + ".git")))
+                  .isAllowed())
+          .isTrue();
+    }
+    return destination;
+  }
+
+  private void assertNextStartIsDelayedByOnePush(Destination destination) throws Exception {
+    PushOne next = newPush(new URIish("ssh://replica.example.com/next.git"));
+    assertThat(destination.requestRunway(next).isThrottled()).isTrue();
+    assertThat(next.getStartDelayNanos()).isAtMost(TimeUnit.MINUTES.toNanos(1));
+  }
+
+  /** A push to the repository of the name, run on the priority threads or the shared pool. */
+  private PushOne newLanePush(String name, boolean priority) throws Exception {
+    PushOne push = newPush(new URIish("ssh://replica.example.com/" + name + ".git"));
+    when(push.isPriority()).thenReturn(priority);
+    return push;
+  }
+
+  /** A push admitted once the push running before it finished, but not started yet. */
+  private PushOne newAdmittedPendingPush(Destination destination) throws Exception {
+    PushOne running = newPush(uri);
+    PushOne waiting = newPush(new URIish("ssh://replica.example.com/other.git"));
+    assertThat(destination.requestRunway(running).isAllowed()).isTrue();
+    assertThat(destination.requestRunway(waiting).isWaiting()).isTrue();
+    assertThat(destination.reschedule(waiting, Destination.RetryReason.ADMISSION)).isTrue();
+
+    destination.notifyFinished(running);
+    assertThat(waiting.isAdmitted()).isTrue();
+    assertThat(destination.getQueue().pending).containsEntry(waiting.getURI(), waiting);
+    return waiting;
+  }
+
+  private Destination newDestination() throws Exception {
+    return newDestination(pool, pool);
+  }
+
+  private Destination newDestination(
+      ScheduledExecutorService pool, ScheduledExecutorService priorityPool) throws Exception {
+    Injector injector = mock(Injector.class);
+    when(injector.createChildInjector(any(Module.class))).thenReturn(childInjector);
+    Destination destination =
+        new Destination(
+            injector,
+            null,
+            null,
+            null,
+            null,
+            null,
+            null,
+            mock(ReplicationStateListeners.class),
+            null,
+            null,
+            () -> storage,
+            null,
+            new DestinationConfiguration(new RemoteConfig(config, REMOTE), config));
+    WorkQueue workQueue = mock(WorkQueue.class);
+    when(workQueue.createQueue(anyInt(), anyString())).thenReturn(pool);
+    when(workQueue.createQueue(anyInt(), endsWith("-Priority"))).thenReturn(priorityPool);
+    destination.start(workQueue);
+    return destination;
+  }
+
+  /** A push to an URI equal to, but not the same instance as, the URI of the other pushes. */
+  private PushOne newPush() throws Exception {
+    PushOne push = mock(PushOne.class);
+    when(push.getURI()).thenReturn(new URIish(uri.toString()));
+    when(push.getId()).thenReturn(++nextId);
+    return push;
+  }
+
+  /** A push to the URI which takes what it needs to run. */
+  private PushOne newPush(URIish to) {
+    PushOne push = mock(PushOne.class);
+    when(push.getURI()).thenReturn(to);
+    when(push.getId()).thenReturn(++nextId);
+    when(push.reserveStart(any())).thenCallRealMethod();
+    when(push.cancelStartReservation()).thenCallRealMethod();
+    when(push.getStartDelayNanos()).thenCallRealMethod();
+    when(push.isConnected()).thenCallRealMethod();
+    doCallRealMethod().when(push).setConnectedHost(any());
+    when(push.takeConnectedHost()).thenCallRealMethod();
+    doCallRealMethod().when(push).setAdmission(any());
+    when(push.isAdmitted()).thenCallRealMethod();
+    when(push.takeAdmission()).thenCallRealMethod();
+    return push;
+  }
+}
@@ -0,0 +1,173 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.stream.Collectors.toList;
+
+import com.google.gerrit.entities.Project;
+import com.google.gerrit.server.git.ProjectRunnable;
+import com.google.gerrit.server.git.WorkQueue.CancelableRunnable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FairPushQueueTest {
+  private static final Project.NameKey MONOREPO = Project.nameKey("monorepo");
+  private static final Project.NameKey SMALL = Project.nameKey("small");
+  private static final Project.NameKey OTHER = Project.nameKey("other");
+
+  private Queue<Runnable> dispatches;
+  private List<String> ran;
+  private FairPushQueue fair;
+
+  @Before
+  public void setUp() {
+    dispatches = new ArrayDeque<>();
+    ran = new ArrayList<>();
+    fair = new FairPushQueue(dispatches::add, Map.of());
+  }
+
+  @Test
+  public void pushesOfUnknownProjectsRunInOrder() {
+    add(MONOREPO, "a");
+    add(SMALL, "b");
+    add(OTHER, "c");
+    runAll();
+    assertThat(ran).containsExactly("a", "b", "c").inOrder();
+  }
+
+  @Test
+  public void shortPushesOvertakeLongOnes() {
+    fair.recordCost(MONOREPO, 60_000);
+    fair.recordCost(SMALL, 100);
+    fair.recordCost(OTHER, 100);
+    add(MONOREPO, "monorepo");
+    add(SMALL, "small");
+    add(OTHER, "other");
+    runAll();
+    assertThat(ran).containsExactly("small", "other", "monorepo").inOrder();
+  }
+
+  @Test
+  public void projectsShareDispatchesByRoundRobin() {
+    for (int i = 0; i < 3; i++) {
+      add(MONOREPO, "monorepo" + i);
+    }
+    add(SMALL, "small");
+    runAll();
+    assertThat(ran).containsExactly("monorepo0", "small", "monorepo1", "monorepo2").inOrder();
+  }
+
+  @Test
+  public void weightGivesMoreDispatches() {
+    fair = new FairPushQueue(dispatches::add, Map.of(SMALL, 2.0));
+    for (int i = 0; i < 4; i++) {
+      add(MONOREPO, "monorepo" + i);
+      add(SMALL, "small" + i);
+    }
+    runAll();
+    assertThat(ran.subList(0, 6))
+        .containsExactly("small0", "monorepo0", "small1", "small2", "monorepo1", "small3")
+        .inOrder();
+  }
+
+  @Test
+  public void removedPushIsNotRun() {
+    add(MONOREPO, "a");
+    add(SMALL, "b");
+    assertThat(fair.remove(p -> p.toString().equals("a"))).hasSize(1);
+    runAll();
+    assertThat(ran).containsExactly("b");
+    assertThat(fair.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void dispatchesShowThePushesWaiting() {
+    add(MONOREPO, "a");
+    add(SMALL, "b");
+    add(OTHER, "c");
+    assertThat(shown()).containsExactly("a", "b", "c");
+
+    dispatches.poll().run();
+    assertThat(ran).containsExactly("a");
+    assertThat(shown()).containsExactly("b", "c");
+    assertThat(((ProjectRunnable) dispatches.peek()).getProjectNameKey()).isEqualTo(SMALL);
+  }
+
+  @Test
+  public void dispatchOfAnotherPushTakesOverTheOneItShowed() {
+    fair.recordCost(MONOREPO, 60_000);
+    add(MONOREPO, "monorepo");
+    add(SMALL, "small");
+    dispatches.poll().run();
+    assertThat(ran).containsExactly("small");
+    assertThat(shown()).containsExactly("monorepo");
+  }
+
+  @Test
+  public void removedPushIsNoLongerShown() {
+    add(MONOREPO, "a");
+    add(SMALL, "b");
+    fair.remove(p -> p.toString().equals("a"));
+    assertThat(shown()).doesNotContain("a");
+    assertThat(shown()).contains("b");
+
+    dispatches.poll().run();
+    assertThat(ran).containsExactly("b");
+    assertThat(shown()).doesNotContain("b");
+    assertThat(((ProjectRunnable) dispatches.peek()).getProjectNameKey()).isNull();
+  }
+
+  @Test
+  public void canceledDispatchCancelsThePushItShows() {
+    add(MONOREPO, "a");
+    add(SMALL, "b");
+    ((CancelableRunnable) dispatches.poll()).cancel();
+    runAll();
+    assertThat(ran).containsExactly("b");
+    assertThat(fair.size()).isEqualTo(0);
+  }
+
+  private List<String> shown() {
+    return dispatches.stream().map(Object::toString).collect(toList());
+  }
+
+  private void add(Project.NameKey project, String name) {
+    fair.add(
+        project,
+        new Runnable() {
+          @Override
+          public void run() {
+            ran.add(name);
+          }
+
+          @Override
+          public String toString() {
+            return name;
+          }
+        });
+  }
+
+  private void runAll() {
+    while (!dispatches.isEmpty()) {
+      dispatches.poll().run();
+    }
+  }
+}
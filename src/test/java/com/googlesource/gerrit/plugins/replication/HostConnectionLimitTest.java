@@ -0,0 +1,127 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HostConnectionLimitTest {
+  private static final String HOST = "replica.example.com:29418";
+
+  private int limit;
+  private HostConnectionLimit hosts;
+  private List<String> admitted;
+
+  @Before
+  public void setUp() {
+    limit = 2;
+    hosts = new HostConnectionLimit(() -> limit);
+    admitted = new ArrayList<>();
+  }
+
+  @Test
+  public void hostIsNameAndPort() throws Exception {
+    assertThat(hosts.hostOf(new URIish("ssh://git@Replica.example.com:29418/a.git")))
+        .isEqualTo(HOST);
+    assertThat(hosts.hostOf(new URIish("git@replica.example.com:b.git")))
+        .isEqualTo("replica.example.com:22");
+    assertThat(hosts.hostOf(new URIish("https://replica.example.com/c")))
+        .isEqualTo("replica.example.com:443");
+    assertThat(hosts.hostOf(new URIish("file:///srv/git/d.git"))).isNull();
+  }
+
+  @Test
+  public void hostDoesNotDependOnTheDefaultLocale() throws Exception {
+    Locale locale = Locale.getDefault();
+    Locale.setDefault(Locale.forLanguageTag("tr-TR"));
+    try {
+      assertThat(hosts.hostOf(new URIish("ssh://REPLICA.example.com:29418/a.git"))).isEqualTo(HOST);
+    } finally {
+      Locale.setDefault(locale);
+    }
+  }
+
+  @Test
+  public void noHostWithoutLimit() throws Exception {
+    limit = 0;
+    assertThat(hosts.hostOf(new URIish("ssh://replica.example.com/a.git"))).isNull();
+  }
+
+  @Test
+  public void connectionsOverLimitWaitInOrder() {
+    assertThat(hosts.tryAcquire(HOST)).isTrue();
+    assertThat(hosts.tryAcquire(HOST)).isTrue();
+    assertThat(hosts.tryAcquire("other:22")).isTrue();
+    assertThat(hosts.tryAcquireOrWait(HOST, admit("first"))).isFalse();
+    assertThat(hosts.tryAcquireOrWait(HOST, admit("second"))).isFalse();
+
+    hosts.release(HOST);
+    assertThat(admitted).containsExactly("first");
+    assertThat(hosts.getOpen(HOST)).isEqualTo(2);
+    hosts.release(HOST);
+    hosts.release(HOST);
+    assertThat(admitted).containsExactly("first", "second").inOrder();
+    assertThat(hosts.getOpen(HOST)).isEqualTo(1);
+  }
+
+  @Test
+  public void waiterNoLongerPendingPassesOnItsConnection() {
+    hosts.tryAcquire(HOST);
+    hosts.tryAcquire(HOST);
+    hosts.tryAcquireOrWait(HOST, () -> false);
+
+    hosts.release(HOST);
+    assertThat(hosts.getOpen(HOST)).isEqualTo(1);
+  }
+
+  @Test
+  public void taskWaitsForConnection() throws Exception {
+    limit = 1;
+    URIish uri = new URIish("ssh://replica.example.com:29418/a.git");
+    hosts.tryAcquire(HOST);
+    CountDownLatch ran = new CountDownLatch(1);
+    Thread task =
+        new Thread(
+            () -> {
+              try {
+                hosts.runConnected(uri, ran::countDown);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+            });
+    task.start();
+    assertThat(ran.await(100, TimeUnit.MILLISECONDS)).isFalse();
+
+    hosts.release(HOST);
+    assertThat(ran.await(10, TimeUnit.SECONDS)).isTrue();
+    task.join();
+    assertThat(hosts.getOpen(HOST)).isEqualTo(0);
+  }
+
+  private PushAdmission.Waiter admit(String name) {
+    return () -> {
+      admitted.add(name);
+      return true;
+    };
+  }
+}
@@ -0,0 +1,91 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.collect.ImmutableSet.toImmutableSet;
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableSet;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.Test;
+
+public class InternedRefsTest {
+  @Test
+  public void equalBatchesAreShared() {
+    ImmutableSet<String> batch = ImmutableSet.of(copy("refs/changes/01/1/1"), copy("refs/heads/a"));
+    ImmutableSet<String> other = ImmutableSet.of(copy("refs/changes/01/1/1"), copy("refs/heads/a"));
+
+    ImmutableSet<String> interned = InternedRefs.intern(batch);
+    assertThat(interned).isEqualTo(batch);
+    assertThat(InternedRefs.intern(other)).isSameInstanceAs(interned);
+  }
+
+  @Test
+  public void batchesWithSharedNamesAreSharedWithoutCopy() {
+    ImmutableSet<String> interned =
+        InternedRefs.intern(ImmutableSet.of(copy("refs/heads/e"), copy("refs/heads/f")));
+    ImmutableSet<String> sameNames = ImmutableSet.copyOf(interned.asList());
+
+    assertThat(InternedRefs.intern(interned)).isSameInstanceAs(interned);
+    assertThat(InternedRefs.intern(sameNames)).isSameInstanceAs(interned);
+    assertThat(InternedRefs.intern(sameNames.asList().reverse().stream().collect(toImmutableSet())))
+        .containsExactly("refs/heads/f", "refs/heads/e")
+        .inOrder();
+  }
+
+  @Test
+  public void orderOfTheRefsIsKept() {
+    ImmutableSet<String> batch =
+        InternedRefs.intern(ImmutableSet.of("refs/heads/c", "refs/heads/d"));
+    ImmutableSet<String> reversed =
+        InternedRefs.intern(ImmutableSet.of("refs/heads/d", "refs/heads/c"));
+
+    assertThat(reversed).containsExactly("refs/heads/d", "refs/heads/c").inOrder();
+    assertThat(reversed.asList().get(0)).isSameInstanceAs(batch.asList().get(1));
+  }
+
+  @Test
+  public void refNamesAreSharedAcrossBatches() {
+    String ref = copy("refs/changes/02/2/meta");
+    ImmutableSet<String> single = InternedRefs.intern(ImmutableSet.of(ref));
+    ImmutableSet<String> pair =
+        InternedRefs.intern(ImmutableSet.of(copy("refs/changes/02/2/1"), copy(ref)));
+
+    String interned = InternedRefs.intern(copy(ref));
+    assertThat(single.iterator().next()).isSameInstanceAs(interned);
+    assertThat(pair.asList().get(1)).isSameInstanceAs(interned);
+  }
+
+  @Test
+  public void replicationTasksShareTheirRefs() throws Exception {
+    URIish uri = new URIish("ssh://replica.example.com/project.git");
+    ReplicateRefUpdate task =
+        ReplicateRefUpdate.create("project", ImmutableSet.of(copy("refs/heads/b")), uri, "remote");
+    ReplicateRefUpdate replayed =
+        ReplicateRefUpdate.create(
+            ReplicateRefUpdate.create(
+                "project", ImmutableSet.of(copy("refs/heads/b")), uri, "remote"),
+            task.sha1());
+
+    assertThat(replayed).isEqualTo(task);
+    assertThat(replayed.refs()).isSameInstanceAs(task.refs());
+  }
+
+  /** A string equal to the one given, but not the same instance. */
+  private static String copy(String s) {
+    return new String(s.toCharArray());
+  }
+}
@@ -0,0 +1,323 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertNoIncompleteTasks;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertThatStream;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.getUrish;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Durability;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Op;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.RemoteTaskStats;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.TaskEncoding;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Transition;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JournalReplicationTasksStorageTest {
+  private static final String PROJECT = "myProject";
+  private static final String REMOTE = "myDest";
+  private static final ReplicateRefUpdate REF_UPDATE =
+      ReplicateRefUpdate.create(
+          PROJECT, Set.of("myRef"), getUrish("http://example.com/" + PROJECT + ".git"), REMOTE);
+  private static final ReplicateRefUpdate STORED_REF_UPDATE =
+      ReplicateRefUpdate.create(REF_UPDATE, REF_UPDATE.sha1());
+  private static final ReplicateRefUpdate REF_UPDATE_2 =
+      ReplicateRefUpdate.create(
+          PROJECT, Set.of("myRef2"), getUrish("http://example.com/" + PROJECT + ".git"), REMOTE);
+  private static final ReplicateRefUpdate STORED_REF_UPDATE_2 =
+      ReplicateRefUpdate.create(REF_UPDATE_2, REF_UPDATE_2.sha1());
+
+  private FileSystem fileSystem;
+  private Path refUpdates;
+  private Path journalDir;
+  private JournalReplicationTasksStorage storage;
+  private TaskEncoding encoding = TaskEncoding.JSON;
+  private UriUpdates uriUpdates;
+  private UriUpdates uriUpdates2;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    refUpdates = fileSystem.getPath("replication_site").resolve("ref-updates");
+    journalDir = fileSystem.getPath("replication_site").resolve("ref-updates-journal");
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    uriUpdates = new TestUriUpdates(REF_UPDATE);
+    uriUpdates2 = new TestUriUpdates(REF_UPDATE_2);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    storage.stop();
+    fileSystem.close();
+  }
+
+  @Test
+  public void canCreateStartAndFinishUpdate() throws Exception {
+    storage.create(REF_UPDATE);
+    assertTrue(storage.isWaiting(uriUpdates));
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+
+    assertThat(storage.start(uriUpdates)).containsExactly(REF_UPDATE.refs());
+    assertFalse(storage.isWaiting(uriUpdates));
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+
+    storage.finish(uriUpdates);
+    assertNoIncompleteTasks(storage);
+  }
+
+  @Test
+  public void canResetAndRecoverUpdates() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+    storage.start(uriUpdates);
+    storage.start(uriUpdates2);
+
+    storage.reset(uriUpdates);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+
+    storage.recoverAll();
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(STORED_REF_UPDATE, STORED_REF_UPDATE_2);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void batchIsAppendedWithASingleWrite() throws Exception {
+    reopen(1);
+    storage.newBatch().create(REF_UPDATE).create(REF_UPDATE_2).start(REF_UPDATE_2).commit();
+    assertThat(listSegments()).hasSize(1);
+
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE_2);
+  }
+
+  @Test
+  public void tasksSurviveReopening() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+    storage.start(uriUpdates2);
+
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE_2);
+
+    storage.finish(uriUpdates2);
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void binaryEncodedTasksCanBeReadBack() throws Exception {
+    storage.create(REF_UPDATE);
+    encoding = TaskEncoding.BINARY;
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    storage.create(REF_UPDATE_2);
+
+    encoding = TaskEncoding.JSON;
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(STORED_REF_UPDATE, STORED_REF_UPDATE_2);
+  }
+
+  @Test
+  public void compactedTasksSurviveReopening() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+
+    assertThat(storage.compactWaiting(Set.of(REMOTE), 10)).isEqualTo(2);
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting().map(ReplicateRefUpdate::refs))
+        .containsExactly(ImmutableSet.of("myRef", "myRef2"));
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void taskStatsAreCountedPerRemote() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(REF_UPDATE_2);
+    storage.start(uriUpdates2);
+
+    RemoteTaskStats stats = storage.getTaskStats().get(REMOTE);
+    assertThat(stats.waiting()).isEqualTo(1);
+    assertThat(stats.running()).isEqualTo(1);
+    assertThat(stats.oldestWaiting()).isGreaterThan(0);
+  }
+
+  @Test
+  public void tornRecordIsTruncatedOnReopening() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.stop();
+    List<Path> segments = listSegments();
+    Path last = segments.get(segments.size() - 1);
+    Files.write(last, new byte[] {0, 0, 1, 0, 3}, StandardOpenOption.APPEND);
+
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+
+    storage.create(REF_UPDATE_2);
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(STORED_REF_UPDATE, STORED_REF_UPDATE_2);
+  }
+
+  @Test
+  public void failedAppendDoesNotHideLaterRecords() throws Exception {
+    storage.stop();
+    boolean[] fail = {true};
+    ReplicationTasksJournal journal =
+        new ReplicationTasksJournal(
+            journalDir,
+            JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE,
+            Durability.BUFFERED,
+            storage::encode,
+            (channel, bytes) -> {
+              if (fail[0]) {
+                fail[0] = false;
+                channel.write(ByteBuffer.wrap(bytes, 0, bytes.length / 2));
+                throw new IOException("No space left on device");
+              }
+              channel.write(ByteBuffer.wrap(bytes));
+            });
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE)))).isEmpty();
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE_2))))
+        .containsExactly(REF_UPDATE_2);
+    journal.close();
+
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE_2);
+  }
+
+  @Test
+  public void failedRollKeepsAppendingToTheCurrentSegment() throws Exception {
+    storage.stop();
+    ReplicationTasksJournal journal =
+        new ReplicationTasksJournal(journalDir, 1, Durability.BUFFERED, storage::encode);
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE))))
+        .containsExactly(REF_UPDATE);
+
+    Path next = blockNextSegment(journal);
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE_2)))).isEmpty();
+    Files.delete(next);
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE_2))))
+        .containsExactly(REF_UPDATE_2);
+    journal.close();
+
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(STORED_REF_UPDATE, STORED_REF_UPDATE_2);
+  }
+
+  @Test
+  public void failedCompactionKeepsAppendingToTheCurrentSegment() throws Exception {
+    storage.stop();
+    ReplicationTasksJournal journal =
+        new ReplicationTasksJournal(journalDir, 1, Durability.BUFFERED, storage::encode);
+    journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE_2)));
+    journal.commit(List.of(Transition.create(Op.START, REF_UPDATE_2)));
+    journal.commit(List.of(Transition.create(Op.FINISH, REF_UPDATE_2)));
+
+    Path next = blockNextSegment(journal);
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE)))).isEmpty();
+    Files.delete(next);
+    assertThat(journal.commit(List.of(Transition.create(Op.CREATE, REF_UPDATE))))
+        .containsExactly(REF_UPDATE);
+    journal.close();
+
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void completedTasksAreCompactedAway() throws Exception {
+    reopen(1);
+    storage.create(REF_UPDATE);
+    for (int i = 0; i < 20; i++) {
+      storage.create(REF_UPDATE_2);
+      storage.start(uriUpdates2);
+      storage.finish(uriUpdates2);
+    }
+    assertThat(listSegments().size()).isLessThan(5);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+
+    reopen(1);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void tasksOfTheFileLayoutAreMigrated() throws Exception {
+    storage.stop();
+    ReplicationTasksStorage fileStorage = new ReplicationTasksStorage(refUpdates);
+    fileStorage.create(REF_UPDATE);
+    fileStorage.create(REF_UPDATE_2);
+    fileStorage.start(uriUpdates2);
+
+    storage = open(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE_2);
+    assertNoIncompleteTasks(fileStorage);
+
+    reopen(JournalReplicationTasksStorage.DEFAULT_SEGMENT_SIZE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE_2);
+  }
+
+  private JournalReplicationTasksStorage open(long segmentSize) {
+    return new JournalReplicationTasksStorage(
+        refUpdates, journalDir, segmentSize, Durability.BUFFERED, encoding);
+  }
+
+  private void reopen(long segmentSize) {
+    storage.stop();
+    storage = open(segmentSize);
+  }
+
+  /** Puts a directory where the journal opens its next segment, so that opening it fails. */
+  private static Path blockNextSegment(ReplicationTasksJournal journal) throws Exception {
+    List<Path> segments = journal.listSegments();
+    String last = segments.get(segments.size() - 1).getFileName().toString();
+    long seq = Long.parseLong(last.substring("segment-".length(), last.length() - ".log".length()));
+    return Files.createDirectory(
+        segments.get(0).resolveSibling(String.format("segment-%010d.log", seq + 1)));
+  }
+
+  private List<Path> listSegments() throws Exception {
+    try (Stream<Path> files = Files.list(journalDir)) {
+      return files.sorted().collect(Collectors.toList());
+    }
+  }
+}
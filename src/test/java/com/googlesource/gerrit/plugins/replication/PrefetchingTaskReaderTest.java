@@ -0,0 +1,95 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import org.junit.Test;
+
+public class PrefetchingTaskReaderTest {
+  private static final int THREADS = 3;
+
+  @Test
+  public void filesAreDecodedInOrder() throws Exception {
+    PrefetchingTaskReader<String> reader = new PrefetchingTaskReader<>(THREADS, this::decode);
+    assertThat(reader.read(files(100)).collect(Collectors.toList()))
+        .containsExactlyElementsIn(names(100))
+        .inOrder();
+  }
+
+  @Test
+  public void filesWhichCannotBeDecodedAreSkipped() throws Exception {
+    PrefetchingTaskReader<String> reader =
+        new PrefetchingTaskReader<>(
+            THREADS, p -> p.toString().equals("5") ? Optional.empty() : decode(p));
+    assertThat(reader.read(files(10)).collect(Collectors.toList())).doesNotContain("5");
+    assertThat(reader.read(files(10)).count()).isEqualTo(9);
+  }
+
+  @Test
+  public void readAheadIsBounded() throws Exception {
+    AtomicInteger decoded = new AtomicInteger();
+    PrefetchingTaskReader<String> reader =
+        new PrefetchingTaskReader<>(
+            THREADS,
+            p -> {
+              decoded.incrementAndGet();
+              return decode(p);
+            });
+    Iterator<String> tasks = reader.read(files(1000)).iterator();
+    assertThat(tasks.next()).isEqualTo("0");
+    assertThat(decoded.get()).isAtMost(THREADS * PrefetchingTaskReader.READ_AHEAD_PER_THREAD + 1);
+  }
+
+  @Test
+  public void closingTheTasksClosesTheFiles() throws Exception {
+    AtomicBoolean closed = new AtomicBoolean();
+    PrefetchingTaskReader<String> reader = new PrefetchingTaskReader<>(THREADS, this::decode);
+    try (Stream<String> tasks = reader.read(files(100).onClose(() -> closed.set(true)))) {
+      assertThat(tasks.findFirst().get()).isEqualTo("0");
+    }
+    assertThat(closed.get()).isTrue();
+  }
+
+  @Test
+  public void singleThreadDecodesInline() throws Exception {
+    PrefetchingTaskReader<String> reader =
+        new PrefetchingTaskReader<>(1, p -> Optional.of(Thread.currentThread().getName()));
+    assertThat(reader.read(files(3)).collect(Collectors.toSet()))
+        .containsExactly(Thread.currentThread().getName());
+  }
+
+  private Optional<String> decode(Path path) {
+    return Optional.of(path.toString());
+  }
+
+  private static Stream<Path> files(int count) {
+    return names(count).stream().map(Paths::get);
+  }
+
+  private static List<String> names(int count) {
+    return IntStream.range(0, count).mapToObj(Integer::toString).collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PushAdmissionTest {
+  private int limit;
+  private PushAdmission admission;
+  private List<String> admitted;
+
+  @Before
+  public void setUp() {
+    limit = 2;
+    admission = new PushAdmission(() -> limit);
+    admitted = new ArrayList<>();
+  }
+
+  @Test
+  public void noBudgetWithoutLimit() {
+    limit = 0;
+    assertThat(admission.register("a", 1)).isNull();
+  }
+
+  @Test
+  public void pushesOverLimitAreDenied() {
+    PushAdmission.Budget a = admission.register("a", 0);
+    PushAdmission.Budget b = admission.register("b", 0);
+    assertThat(a.tryAcquire()).isTrue();
+    assertThat(b.tryAcquire()).isTrue();
+    assertThat(a.tryAcquire()).isFalse();
+    assertThat(b.tryAcquire()).isFalse();
+
+    a.release();
+    assertThat(b.tryAcquire()).isTrue();
+  }
+
+  @Test
+  public void reservedPushesAreNotTakenByOtherRemotes() {
+    PushAdmission.Budget busy = admission.register("busy", 0);
+    PushAdmission.Budget quiet = admission.register("quiet", 1);
+    assertThat(busy.tryAcquire()).isTrue();
+    assertThat(busy.tryAcquire()).isFalse();
+
+    assertThat(quiet.tryAcquire()).isTrue();
+    assertThat(quiet.tryAcquire()).isFalse();
+  }
+
+  @Test
+  public void releaseAdmitsWaitersInOrder() {
+    PushAdmission.Budget a = admission.register("a", 0);
+    assertThat(a.tryAcquire()).isTrue();
+    assertThat(a.tryAcquire()).isTrue();
+    assertThat(a.tryAcquireOrWait(admit("first"))).isFalse();
+    assertThat(a.tryAcquireOrWait(admit("second"))).isFalse();
+
+    a.release();
+    assertThat(admitted).containsExactly("first");
+    a.release();
+    assertThat(admitted).containsExactly("first", "second").inOrder();
+    assertThat(admission.getWaiting()).isEqualTo(0);
+  }
+
+  @Test
+  public void waiterNoLongerPendingPassesOnItsPush() {
+    PushAdmission.Budget a = admission.register("a", 0);
+    a.tryAcquire();
+    a.tryAcquire();
+    a.tryAcquireOrWait(() -> false);
+    a.tryAcquireOrWait(admit("next"));
+
+    a.release();
+    assertThat(admitted).containsExactly("next");
+    assertThat(a.tryAcquire()).isFalse();
+  }
+
+  @Test
+  public void unregisteredBudgetDropsWaitersAndReleasesIntoSharedLimit() {
+    PushAdmission.Budget old = admission.register("a", 2);
+    old.tryAcquire();
+    old.tryAcquire();
+    old.tryAcquireOrWait(admit("dropped"));
+    admission.unregister(old);
+    assertThat(admission.getWaiting()).isEqualTo(0);
+
+    PushAdmission.Budget other = admission.register("b", 0);
+    assertThat(other.tryAcquire()).isFalse();
+    old.release();
+    assertThat(other.tryAcquire()).isTrue();
+    assertThat(admitted).isEmpty();
+  }
+
+  private PushAdmission.Waiter admit(String name) {
+    return () -> {
+      admitted.add(name);
+      return true;
+    };
+  }
+}
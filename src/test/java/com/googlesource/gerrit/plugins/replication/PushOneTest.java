@@ -39,6 +39,7 @@ import com.google.gerrit.server.permissions.PermissionBackend.WithUser;
 import com.google.gerrit.server.project.ProjectCache;
 import com.google.gerrit.server.project.ProjectState;
 import com.google.gerrit.server.util.IdGenerator;
+import com.googlesource.gerrit.plugins.replication.ReplicationState.RefPushResult;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationPushFilter;
 import java.io.File;
@@ -53,6 +54,7 @@ import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 import org.eclipse.jgit.errors.NotSupportedException;
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
@@ -395,6 +397,64 @@ public class PushOneTest {
     assertThat(pushOne.isRetrying()).isFalse();
   }
 
+  @Test
+  public void pushRequeuedOnCollisionDoesNotFailTheStatesOfItsNextRun() throws Exception {
+    ReplicationState state = mock(ReplicationState.class);
+    PushOne pushOne = createPushOne(null);
+    pushOne.addRefBatch(ImmutableSet.of(PushOne.ALL_REFS));
+    pushOne.addState(ImmutableSet.of(newLocalRef.getName()), state);
+
+    CountDownLatch firstRunDone = new CountDownLatch(1);
+    CountDownLatch pushing = new CountDownLatch(1);
+    CountDownLatch pushDone = new CountDownLatch(1);
+    AtomicInteger runs = new AtomicInteger();
+    when(threadRequestScoperMock.scope(any()))
+        .thenAnswer(
+            invocation -> {
+              @SuppressWarnings("unchecked")
+              Callable<Object> run = (Callable<Object>) invocation.getArguments()[0];
+              boolean first = runs.incrementAndGet() == 1;
+              return (Callable<Object>)
+                  () -> {
+                    Object result = run.call();
+                    if (first) {
+                      // The hand-off runs the push again before its first run is cleaned up
+                      firstRunDone.countDown();
+                      pushing.await(TEST_PUSH_TIMEOUT_SECS, TimeUnit.SECONDS);
+                    }
+                    return result;
+                  };
+            });
+    when(destinationMock.requestRunway(any()))
+        .thenReturn(RunwayStatus.denied(1))
+        .thenAnswer(
+            invocation -> {
+              firstRunDone.await(TEST_PUSH_TIMEOUT_SECS, TimeUnit.SECONDS);
+              return RunwayStatus.allowed();
+            });
+    when(transportMock.push(any(), any()))
+        .thenAnswer(
+            invocation -> {
+              pushing.countDown();
+              pushDone.await(TEST_PUSH_TIMEOUT_SECS, TimeUnit.SECONDS);
+              return new PushResult();
+            });
+    Thread successor = new Thread(pushOne::run);
+    when(destinationMock.reschedule(pushOne, Destination.RetryReason.COLLISION))
+        .thenAnswer(
+            invocation -> {
+              successor.start();
+              return true;
+            });
+
+    pushOne.run();
+
+    verify(state, never())
+        .notifyRefReplicated(any(), any(), any(), eq(RefPushResult.FAILED), any());
+    pushDone.countDown();
+    successor.join(TimeUnit.SECONDS.toMillis(TEST_PUSH_TIMEOUT_SECS));
+  }
+
   private void replicateTwoRefs(PushOne pushOne) throws InterruptedException {
     ObjectIdRef barLocalRef =
         new ObjectIdRef.Unpeeled(
@@ -0,0 +1,121 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertThatStream;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.getUrish;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.hash.Hashing;
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.Durability;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.TaskEncoding;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicateRefUpdateCodecTest {
+  private static final String PROJECT = "myProject";
+  private static final String REMOTE = "myDest";
+  private static final String URI = "http://example.com/" + PROJECT + ".git";
+  private static final ReplicateRefUpdate REF_UPDATE =
+      ReplicateRefUpdate.create(
+          PROJECT, new LinkedHashSet<>(List.of("myRef", "refs/heads/é")), getUrish(URI), REMOTE);
+  private static final ReplicateRefUpdate STORED_REF_UPDATE =
+      ReplicateRefUpdate.create(REF_UPDATE, REF_UPDATE.sha1());
+
+  private FileSystem fileSystem;
+  private Path storageSite;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    storageSite = fileSystem.getPath("replication_site");
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fileSystem.close();
+  }
+
+  @Test
+  public void canRoundTripUpdate() throws Exception {
+    byte[] bytes = ReplicateRefUpdateCodec.encode(REF_UPDATE);
+    assertThat(ReplicateRefUpdateCodec.isBinary(bytes)).isTrue();
+    assertThat(ReplicateRefUpdateCodec.decode(bytes, REF_UPDATE.sha1()))
+        .isEqualTo(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void decodedRefNamesAreInterned() throws Exception {
+    byte[] bytes = ReplicateRefUpdateCodec.encode(REF_UPDATE);
+    String ref = ReplicateRefUpdateCodec.decode(bytes, REF_UPDATE.sha1()).refs().iterator().next();
+    assertThat(ReplicateRefUpdateCodec.decode(bytes, REF_UPDATE.sha1()).refs().iterator().next())
+        .isSameInstanceAs(ref);
+  }
+
+  @Test
+  public void truncatedUpdateIsRejected() throws Exception {
+    byte[] bytes = ReplicateRefUpdateCodec.encode(REF_UPDATE);
+    byte[] truncated = Arrays.copyOf(bytes, bytes.length - 3);
+    assertThrows(IOException.class, () -> ReplicateRefUpdateCodec.decode(truncated, "key"));
+  }
+
+  @Test
+  public void keyIsUnchanged() throws Exception {
+    @SuppressWarnings("deprecation")
+    String expected =
+        ObjectId.fromRaw(
+                Hashing.sha1()
+                    .hashString(
+                        PROJECT + "\n" + REF_UPDATE.refs() + "\n" + URI + "\n" + REMOTE, UTF_8)
+                    .asBytes())
+            .name();
+    assertThat(ReplicateRefUpdateCodec.key(PROJECT, REF_UPDATE.refs(), URI, REMOTE))
+        .isEqualTo(expected);
+    assertThat(REF_UPDATE.sha1()).isEqualTo(expected);
+  }
+
+  @Test
+  public void jsonStorageCanReadBinaryTasks() throws Exception {
+    storage(TaskEncoding.BINARY).create(REF_UPDATE);
+    assertThatStream(storage(TaskEncoding.JSON).streamWaiting()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void binaryStorageCanReadJsonTasks() throws Exception {
+    storage(TaskEncoding.JSON).create(REF_UPDATE);
+    ReplicationTasksStorage storage = storage(TaskEncoding.BINARY);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+
+    storage.start(new TestUriUpdates(REF_UPDATE));
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  private ReplicationTasksStorage storage(TaskEncoding encoding) {
+    return new ReplicationTasksStorage(storageSite, Durability.BUFFERED, encoding);
+  }
+}
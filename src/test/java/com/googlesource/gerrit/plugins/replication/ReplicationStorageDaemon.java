@@ -19,7 +19,6 @@ import static java.util.stream.Collectors.toList;
 import com.googlesource.gerrit.plugins.replication.api.ReplicationConfig;
 import java.io.IOException;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
@@ -67,11 +66,9 @@ public class ReplicationStorageDaemon extends ReplicationDaemon {
   }
 
   protected void deleteWaitingReplicationTasks(String refRegex) {
-    Path refUpdates = replicationConfig.getEventsDirectory().resolve("ref-updates");
-    Path waitingUpdates = refUpdates.resolve("waiting");
     for (ReplicationTasksStorage.ReplicateRefUpdate r : listWaitingReplicationTasks(refRegex)) {
       try {
-        Files.deleteIfExists(waitingUpdates.resolve(r.sha1()));
+        Files.deleteIfExists(tasksStorage.new Task(r).waiting);
       } catch (IOException e) {
         throw new RuntimeException("Couldn't delete waiting task", e);
       }
@@ -0,0 +1,116 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertThatStream;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.getUrish;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Set;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicationTasksScannerTest {
+  private static final String PROJECT = "myProject";
+  private static final String REMOTE = "myDest";
+  private static final ReplicateRefUpdate REF_UPDATE =
+      ReplicateRefUpdate.create(
+          PROJECT, Set.of("myRef"), getUrish("http://example.com/" + PROJECT + ".git"), REMOTE);
+  private static final ReplicateRefUpdate STORED_REF_UPDATE =
+      ReplicateRefUpdate.create(REF_UPDATE, REF_UPDATE.sha1());
+  private static final long MAX_AGE = 60_000;
+
+  private FileSystem fileSystem;
+  private Path storageSite;
+  private ReplicationTasksStorage storage;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    storageSite = fileSystem.getPath("replication_site");
+    storage = new ReplicationTasksStorage(storageSite);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fileSystem.close();
+  }
+
+  @Test
+  public void consistentStorageIsLeftUnchanged() throws Exception {
+    storage.create(REF_UPDATE);
+    assertThat(storage.scan(MAX_AGE).isClean()).isTrue();
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void onlyOldBuildingFilesAreRemoved() throws Exception {
+    Path building = Files.createDirectories(storageSite.resolve("building"));
+    Path old = Files.write(building.resolve("old"), new byte[0]);
+    Files.setLastModifiedTime(old, FileTime.fromMillis(System.currentTimeMillis() - 2 * MAX_AGE));
+    Path recent = Files.write(building.resolve("recent"), new byte[0]);
+
+    assertThat(storage.scan(MAX_AGE).orphansRemoved()).isEqualTo(1);
+    assertThat(Files.exists(old)).isFalse();
+    assertThat(Files.exists(recent)).isTrue();
+  }
+
+  @Test
+  public void runningCopyOfWaitingTaskIsRemoved() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.start(new TestUriUpdates(REF_UPDATE));
+    storage.create(REF_UPDATE);
+
+    assertThat(storage.scan(MAX_AGE).duplicatesResolved()).isEqualTo(1);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void duplicatesAreKeptWithMultiplePrimaries() throws Exception {
+    storage = new ReplicationTasksStorage(storageSite, true);
+    storage.create(REF_UPDATE);
+    storage.start(new TestUriUpdates(REF_UPDATE));
+    storage.create(REF_UPDATE);
+
+    assertThat(storage.scan(MAX_AGE).duplicatesResolved()).isEqualTo(0);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void unreadableTasksAreQuarantined() throws Exception {
+    storage.create(REF_UPDATE);
+    Path waiting = storageSite.resolve("waiting");
+    Path partitioned = waiting.resolve(REMOTE).resolve("00");
+    Files.createDirectories(partitioned);
+    Files.write(partitioned.resolve("00corrupt"), "{\"project\":".getBytes(UTF_8));
+    Files.write(waiting.resolve("flat"), new byte[0]);
+
+    assertThat(storage.scan(MAX_AGE).quarantined()).isEqualTo(2);
+    assertThat(Files.exists(storageSite.resolve("quarantine/waiting/00corrupt"))).isTrue();
+    assertThat(Files.exists(storageSite.resolve("quarantine/waiting/flat"))).isTrue();
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThat(storage.scan(MAX_AGE).isClean()).isTrue();
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.googlesource.gerrit.plugins.replication.ReplicationTasksStorageTest.assertThatStream;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.jimfs.Configuration;
+import com.google.common.jimfs.Jimfs;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import org.eclipse.jgit.transport.URIish;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReplicationTasksStorageLeaseTest {
+  private static final String PROJECT = "myProject";
+  private static final String REMOTE = "myDest";
+  private static final URIish URISH =
+      ReplicationTasksStorageTest.getUrish("http://example.com/" + PROJECT + ".git");
+  private static final ReplicateRefUpdate REF_UPDATE =
+      ReplicateRefUpdate.create(PROJECT, Set.of("myRef"), URISH, REMOTE);
+  private static final ReplicateRefUpdate STORED_REF_UPDATE =
+      ReplicateRefUpdate.create(REF_UPDATE, REF_UPDATE.sha1());
+  private static final UriUpdates URI_UPDATES = new TestUriUpdates(REF_UPDATE);
+  private static final long LEASE_DURATION = 60_000;
+
+  private FileSystem fileSystem;
+  private Path storageSite;
+  private ReplicationTasksStorage nodeA;
+  private ReplicationTasksStorage nodeB;
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = Jimfs.newFileSystem(Configuration.unix());
+    storageSite = fileSystem.getPath("replication_site");
+    nodeA = new ReplicationTasksStorage(storageSite, "nodeA", LEASE_DURATION);
+    nodeB = new ReplicationTasksStorage(storageSite, "nodeB", LEASE_DURATION);
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    fileSystem.close();
+  }
+
+  @Test
+  public void taskLeasedByOtherNodeIsNotStarted() {
+    nodeA.create(REF_UPDATE);
+    assertThat(nodeA.start(URI_UPDATES)).isNotEmpty();
+
+    nodeA.create(REF_UPDATE);
+    assertThat(nodeB.start(URI_UPDATES)).isEmpty();
+    assertThatStream(nodeB.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void leasedTaskIsNotRecoveredByOtherNode() {
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+
+    nodeB.recoverAll(Set.of(REMOTE));
+    assertThat(nodeB.reclaimExpiredLeases()).isEqualTo(0);
+    assertThatStream(nodeB.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void expiredLeaseIsReclaimedByOtherNode() {
+    nodeA = new ReplicationTasksStorage(storageSite, "nodeA", 0);
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+
+    assertThat(nodeB.reclaimExpiredLeases()).isEqualTo(1);
+    assertThatStream(nodeB.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertThat(Files.exists(lease())).isFalse();
+    assertThat(nodeB.start(URI_UPDATES)).isNotEmpty();
+  }
+
+  @Test
+  public void leaseOfPreviousRunIsRecoveredOnRestart() {
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+
+    ReplicationTasksStorage restartedNodeA =
+        new ReplicationTasksStorage(storageSite, "nodeA", LEASE_DURATION);
+    restartedNodeA.recoverAll(Set.of(REMOTE));
+    assertThatStream(restartedNodeA.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void leaseIsRemovedWhenTaskIsFinished() {
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+    assertThat(Files.exists(lease())).isTrue();
+
+    nodeA.finish(URI_UPDATES);
+    assertThat(Files.exists(lease())).isFalse();
+  }
+
+  @Test
+  public void resetTaskCanBeStartedByOtherNode() {
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+
+    nodeA.reset(URI_UPDATES);
+    assertThat(Files.exists(lease())).isFalse();
+    assertThat(nodeB.start(URI_UPDATES)).isNotEmpty();
+  }
+
+  @Test
+  public void renewedLeaseIsNotReclaimed() throws Exception {
+    nodeA.create(REF_UPDATE);
+    nodeA.start(URI_UPDATES);
+    Files.write(lease(), "nodeA\n0\n".getBytes(UTF_8));
+
+    nodeA.renewLeases();
+    assertThat(nodeB.reclaimExpiredLeases()).isEqualTo(0);
+    assertThatStream(nodeB.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  private Path lease() {
+    return storageSite.resolve("leases").resolve(REF_UPDATE.sha1());
+  }
+}
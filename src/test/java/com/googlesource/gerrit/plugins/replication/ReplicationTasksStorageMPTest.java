@@ -50,9 +50,9 @@ public class ReplicationTasksStorageMPTest {
   public void setUp() throws Exception {
     fileSystem = Jimfs.newFileSystem(Configuration.unix());
     Path storageSite = fileSystem.getPath("replication_site");
-    nodeA = new ReplicationTasksStorage(storageSite);
-    nodeB = new ReplicationTasksStorage(storageSite);
-    persistedView = new ReplicationTasksStorage(storageSite);
+    nodeA = new ReplicationTasksStorage(storageSite, true);
+    nodeB = new ReplicationTasksStorage(storageSite, true);
+    persistedView = new ReplicationTasksStorage(storageSite, true);
   }
 
   @After
@@ -50,8 +50,8 @@ public class ReplicationTasksStorageTaskMPTest {
   public void setUp() throws Exception {
     fileSystem = Jimfs.newFileSystem(Configuration.unix());
     storageSite = fileSystem.getPath("replication_site");
-    nodeA = new ReplicationTasksStorage(storageSite);
-    nodeB = new ReplicationTasksStorage(storageSite);
+    nodeA = new ReplicationTasksStorage(storageSite, true);
+    nodeB = new ReplicationTasksStorage(storageSite, true);
     taskA = nodeA.new Task(REF_UPDATE);
     taskB = nodeB.new Task(REF_UPDATE);
   }
@@ -24,11 +24,17 @@ import com.google.common.jimfs.Configuration;
 import com.google.common.jimfs.Jimfs;
 import com.google.common.truth.IterableSubject;
 import com.google.gerrit.entities.Project;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.RemoteTaskStats;
 import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.ReplicateRefUpdate;
+import com.googlesource.gerrit.plugins.replication.ReplicationTasksStorage.TaskLayout;
 import java.net.URISyntaxException;
 import java.nio.file.FileSystem;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import org.eclipse.jgit.transport.URIish;
@@ -403,6 +409,236 @@ public class ReplicationTasksStorageTest {
     assertNoIncompleteTasks(storage);
   }
 
+  @Test
+  public void waitingTasksAreLoadedIntoIndex() throws Exception {
+    storage.create(REF_UPDATE);
+
+    ReplicationTasksStorage restarted = new ReplicationTasksStorage(storageSite);
+    assertTrue(restarted.isWaiting(uriUpdates));
+    restarted.start(uriUpdates);
+    assertFalse(restarted.isWaiting(uriUpdates));
+  }
+
+  @Test
+  public void taskRemovedOutsideOfTheStorageIsCreatedAgain() throws Exception {
+    storage.create(REF_UPDATE);
+    Files.delete(storage.new Task(REF_UPDATE).waiting);
+
+    storage.create(REF_UPDATE);
+    assertTrue(Files.exists(storage.new Task(REF_UPDATE).waiting));
+    assertThatStream(new ReplicationTasksStorage(storageSite).streamWaiting())
+        .containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void reconcileIndexPicksUpChangesOfOtherInstances() throws Exception {
+    ReplicationTasksStorage other = new ReplicationTasksStorage(storageSite);
+    assertFalse(other.isWaiting(uriUpdates));
+
+    storage.create(REF_UPDATE);
+    assertFalse(other.isWaiting(uriUpdates));
+
+    other.reconcileIndex();
+    assertTrue(other.isWaiting(uriUpdates));
+  }
+
+  @Test
+  public void reconcileIndexKeepsConcurrentTransitions() throws Exception {
+    assertFalse(storage.isWaiting(uriUpdates));
+    AtomicBoolean done = new AtomicBoolean();
+    Thread reconciler =
+        new Thread(
+            () -> {
+              while (!done.get()) {
+                storage.reconcileIndex();
+              }
+            });
+    reconciler.start();
+    try {
+      for (int i = 0; i < 200; i++) {
+        ReplicateRefUpdate update =
+            ReplicateRefUpdate.create(PROJECT, Set.of("refs/heads/" + i), URISH, REMOTE);
+        UriUpdates updates = new TestUriUpdates(update);
+        storage.create(update);
+        assertTrue(storage.isWaiting(updates));
+        storage.start(updates);
+        assertFalse(storage.isWaiting(updates));
+      }
+    } finally {
+      done.set(true);
+      reconciler.join();
+    }
+    assertThat(storage.getTaskStats().get(REMOTE).waiting()).isEqualTo(0);
+    assertThat(storage.getTaskStats().get(REMOTE).running()).isEqualTo(200);
+  }
+
+  @Test
+  public void canCommitBatchOfTransitions() throws Exception {
+    Set<ReplicateRefUpdate> applied =
+        storage.newBatch().create(REF_UPDATE).create(REFS_UPDATE).start(REF_UPDATE).commit();
+    assertThat(applied).containsExactly(REF_UPDATE, REFS_UPDATE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REFS_UPDATE);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+
+    applied = storage.newBatch().finish(REF_UPDATE).finish(REFS_UPDATE).commit();
+    assertThat(applied).containsExactly(REF_UPDATE);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REFS_UPDATE);
+    assertThatStream(storage.streamRunning()).isEmpty();
+  }
+
+  @Test
+  public void canCommitBatchWithEveryDurability() throws Exception {
+    for (ReplicationTasksStorage.Durability durability :
+        ReplicationTasksStorage.Durability.values()) {
+      ReplicationTasksStorage durableStorage =
+          new ReplicationTasksStorage(
+              storageSite.resolve(durability.name()),
+              durability,
+              ReplicationTasksStorage.TaskEncoding.JSON);
+      durableStorage.newBatch().create(REF_UPDATE).create(REFS_UPDATE).commit();
+      durableStorage.start(uriUpdates);
+      assertThatStream(durableStorage.streamWaiting()).containsExactly(STORED_REFS_UPDATE);
+      assertThatStream(durableStorage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+    }
+  }
+
+  @Test
+  public void tasksAreNotPartitionedByDefault() throws Exception {
+    storage.create(REF_UPDATE);
+    assertTrue(Files.exists(storageSite.resolve("waiting").resolve(REF_UPDATE.sha1())));
+    assertThatStream(storage.streamWaiting(Set.of(REMOTE))).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamWaiting(Set.of("other"))).isEmpty();
+  }
+
+  @Test
+  public void partitionedTasksAreMovedBackWhenNotPartitioned() throws Exception {
+    storage = new ReplicationTasksStorage(storageSite, TaskLayout.PARTITIONED);
+    storage.create(REF_UPDATE);
+
+    storage = new ReplicationTasksStorage(storageSite);
+    assertThatStream(storage.streamWaiting()).containsExactly(STORED_REF_UPDATE);
+    assertTrue(Files.exists(storageSite.resolve("waiting").resolve(REF_UPDATE.sha1())));
+    assertThat(storage.getTaskStats().get(REMOTE).waiting()).isEqualTo(1);
+
+    storage.start(uriUpdates);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void tasksArePartitionedByRemote() throws Exception {
+    storage = new ReplicationTasksStorage(storageSite, TaskLayout.PARTITIONED);
+    ReplicateRefUpdate otherRemote =
+        ReplicateRefUpdate.create(PROJECT, Set.of(REF), URISH, "other");
+    storage.create(REF_UPDATE);
+    storage.create(otherRemote);
+    storage.start(new TestUriUpdates(otherRemote));
+
+    assertTrue(
+        Files.exists(
+            storageSite
+                .resolve("waiting")
+                .resolve(REMOTE)
+                .resolve(REF_UPDATE.sha1().substring(0, 2))
+                .resolve(REF_UPDATE.sha1())));
+    assertThatStream(storage.streamWaiting(Set.of(REMOTE))).containsExactly(STORED_REF_UPDATE);
+    assertThatStream(storage.streamWaiting(Set.of("other"))).isEmpty();
+    assertThatStream(storage.streamRunning(Set.of(REMOTE, "unknown"))).isEmpty();
+
+    storage.recoverAll(Set.of("other"));
+    assertThatStream(storage.streamWaiting(Set.of("other")))
+        .containsExactly(ReplicateRefUpdate.create(otherRemote, otherRemote.sha1()));
+  }
+
+  @Test
+  public void unpartitionedTasksAreMovedToTheirPartition() throws Exception {
+    Path waiting = Files.createDirectories(storageSite.resolve("waiting"));
+    Files.write(waiting.resolve(REF_UPDATE.sha1()), storage.encode(REF_UPDATE));
+
+    storage = new ReplicationTasksStorage(storageSite, TaskLayout.PARTITIONED);
+    assertThatStream(storage.streamWaiting(Set.of(REMOTE))).containsExactly(STORED_REF_UPDATE);
+    assertFalse(Files.exists(waiting.resolve(REF_UPDATE.sha1())));
+
+    storage.start(uriUpdates);
+    assertThatStream(storage.streamRunning()).containsExactly(STORED_REF_UPDATE);
+  }
+
+  @Test
+  public void remoteDirNameIsASinglePathSegment() throws Exception {
+    assertThat(ReplicationTasksStorage.remoteDirName("my-remote")).isEqualTo("my-remote");
+    assertThat(ReplicationTasksStorage.remoteDirName("a/b")).isEqualTo("a%2Fb");
+    assertThat(ReplicationTasksStorage.remoteDirName("..")).isEqualTo("%2E.");
+  }
+
+  @Test
+  public void compactWaitingMergesTasksOfTheSameDestination() throws Exception {
+    ReplicateRefUpdate ref2Update =
+        ReplicateRefUpdate.create(PROJECT, Set.of(REF_2), URISH, REMOTE);
+    ReplicateRefUpdate otherUri =
+        ReplicateRefUpdate.create(
+            PROJECT, Set.of(REF), getUrish("ssh://example.com/" + PROJECT + ".git"), REMOTE);
+    storage.create(REF_UPDATE);
+    storage.create(ref2Update);
+    storage.create(otherUri);
+
+    assertThat(storage.compactWaiting(Set.of(REMOTE), 10)).isEqualTo(2);
+    ReplicateRefUpdate merged =
+        ReplicateRefUpdate.create(PROJECT, new TreeSet<>(Set.of(REF, REF_2)), URISH, REMOTE);
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(
+            ReplicateRefUpdate.create(merged, merged.sha1()),
+            ReplicateRefUpdate.create(otherUri, otherUri.sha1()));
+    assertThatStream(storage.streamRunning()).isEmpty();
+
+    storage = new ReplicationTasksStorage(storageSite);
+    assertThat(storage.start(new TestUriUpdates(merged))).containsExactly(merged.refs());
+  }
+
+  @Test
+  public void compactWaitingReplacesTooManyRefsWithAllRefs() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(ReplicateRefUpdate.create(PROJECT, Set.of(REF_2), URISH, REMOTE));
+
+    assertThat(storage.compactWaiting(Set.of(REMOTE), 1)).isEqualTo(2);
+    ReplicateRefUpdate allRefs =
+        ReplicateRefUpdate.create(PROJECT, Set.of(PushOne.ALL_REFS), URISH, REMOTE);
+    assertThatStream(storage.streamWaiting())
+        .containsExactly(ReplicateRefUpdate.create(allRefs, allRefs.sha1()));
+  }
+
+  @Test
+  public void compactWaitingIgnoresOtherRemotes() throws Exception {
+    storage.create(REF_UPDATE);
+    storage.create(ReplicateRefUpdate.create(PROJECT, Set.of(REF_2), URISH, REMOTE));
+
+    assertThat(storage.compactWaiting(Set.of("other"), 10)).isEqualTo(0);
+    assertThat(storage.streamWaiting().count()).isEqualTo(2);
+  }
+
+  @Test
+  public void taskStatsAreCountedPerRemote() throws Exception {
+    ReplicateRefUpdate otherRemote =
+        ReplicateRefUpdate.create(PROJECT, Set.of(REF), URISH, "other");
+    long before = System.currentTimeMillis();
+    storage.create(REF_UPDATE);
+    storage.create(REFS_UPDATE);
+    storage.create(otherRemote);
+    storage.start(uriUpdates);
+
+    Map<String, RemoteTaskStats> stats = storage.getTaskStats();
+    assertThat(stats.keySet()).containsExactly(REMOTE, "other");
+    assertThat(stats.get(REMOTE).waiting()).isEqualTo(1);
+    assertThat(stats.get(REMOTE).running()).isEqualTo(1);
+    assertThat(stats.get(REMOTE).building()).isEqualTo(0);
+    assertThat(stats.get(REMOTE).oldestWaiting()).isAtLeast(before);
+    assertThat(stats.get("other").waiting()).isEqualTo(1);
+
+    Map<String, RemoteTaskStats> loaded = new ReplicationTasksStorage(storageSite).getTaskStats();
+    assertThat(loaded.keySet()).containsExactly(REMOTE, "other");
+    assertThat(loaded.get(REMOTE).waiting()).isEqualTo(1);
+    assertThat(loaded.get(REMOTE).running()).isEqualTo(1);
+    assertThat(loaded.get(REMOTE).oldestWaiting()).isAtLeast(before - 1000);
+  }
+
   @Test(expected = Test.None.class /* no exception expected */)
   public void illegalFinishUncreatedIsGraceful() throws Exception {
     storage.finish(uriUpdates);
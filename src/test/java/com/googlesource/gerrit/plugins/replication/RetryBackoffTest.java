@@ -0,0 +1,57 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.Range;
+import org.junit.Test;
+
+public class RetryBackoffTest {
+  private static final long BASE_MS = 1_000;
+  private static final long CAP_MS = 10_000;
+
+  @Test
+  public void delayIsBaseWithoutCap() {
+    RetryBackoff backoff = new RetryBackoff(BASE_MS, 0, () -> 1.0);
+    assertThat(backoff.delayMillis(1)).isEqualTo(BASE_MS);
+    assertThat(backoff.delayMillis(10)).isEqualTo(BASE_MS);
+  }
+
+  @Test
+  public void upperBoundDoublesWithAttemptsUpToCap() {
+    RetryBackoff backoff = new RetryBackoff(BASE_MS, CAP_MS, () -> 1.0);
+    assertThat(backoff.delayMillis(1)).isEqualTo(1_000);
+    assertThat(backoff.delayMillis(2)).isEqualTo(2_000);
+    assertThat(backoff.delayMillis(3)).isEqualTo(4_000);
+    assertThat(backoff.delayMillis(4)).isEqualTo(8_000);
+    assertThat(backoff.delayMillis(5)).isEqualTo(CAP_MS);
+    assertThat(backoff.delayMillis(Integer.MAX_VALUE)).isEqualTo(CAP_MS);
+  }
+
+  @Test
+  public void delayIsNeverShorterThanBase() {
+    RetryBackoff backoff = new RetryBackoff(BASE_MS, CAP_MS, () -> 0.0);
+    assertThat(backoff.delayMillis(4)).isEqualTo(BASE_MS);
+  }
+
+  @Test
+  public void delayIsJitteredWithinBounds() {
+    RetryBackoff backoff = new RetryBackoff(BASE_MS, CAP_MS);
+    for (int i = 0; i < 1000; i++) {
+      assertThat(backoff.delayMillis(3)).isIn(Range.closed(BASE_MS, 4_000L));
+    }
+  }
+}
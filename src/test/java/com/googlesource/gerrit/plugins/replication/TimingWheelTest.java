@@ -0,0 +1,164 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelTest {
+  private static final long TICK_MS = 100;
+
+  private long nanos;
+  private List<Runnable> executed;
+  private TimingWheel wheel;
+
+  @Before
+  public void setUp() {
+    nanos = 0;
+    executed = new ArrayList<>();
+    wheel = new TimingWheel("test", TICK_MS, MILLISECONDS, executed::add, () -> nanos);
+  }
+
+  @Test
+  public void taskIsExecutedWhenDue() {
+    Runnable task = task("task");
+    wheel.schedule(task, 15, SECONDS);
+
+    advance(14_900, MILLISECONDS);
+    assertThat(executed).isEmpty();
+    advance(100, MILLISECONDS);
+    assertThat(executed).containsExactly(task);
+    assertThat(wheel.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void taskWithoutDelayIsExecutedImmediately() {
+    Runnable task = task("task");
+    wheel.schedule(task, 0, SECONDS);
+    assertThat(executed).containsExactly(task);
+  }
+
+  @Test
+  public void tasksOfOuterWheelsAreExecutedWhenDue() {
+    Runnable minute = task("minute");
+    Runnable hour = task("hour");
+    Runnable day = task("day");
+    wheel.schedule(minute, 1, MINUTES);
+    wheel.schedule(hour, 60, MINUTES);
+    wheel.schedule(day, 24 * 60, MINUTES);
+
+    advanceByTicks(1, MINUTES);
+    assertThat(executed).containsExactly(minute);
+    advanceByTicks(59, MINUTES);
+    assertThat(executed).containsExactly(minute, hour).inOrder();
+    advanceByTicks(23 * 60 - 1, MINUTES);
+    assertThat(executed).doesNotContain(day);
+    advanceByTicks(1, MINUTES);
+    assertThat(executed).containsExactly(minute, hour, day).inOrder();
+  }
+
+  @Test
+  public void taskIsNeverExecutedEarly() {
+    for (long delay = 1; delay < 100_000; delay = delay * 3 + 7) {
+      setUp();
+      Runnable task = task("task");
+      wheel.schedule(task, delay, SECONDS);
+      advanceByTicks(delay - 1, SECONDS);
+      assertThat(executed).isEmpty();
+      advanceByTicks(1, SECONDS);
+      assertThat(executed).containsExactly(task);
+    }
+  }
+
+  @Test
+  public void lateRunCatchesUp() {
+    Runnable first = task("first");
+    Runnable second = task("second");
+    wheel.schedule(first, 10, SECONDS);
+    wheel.schedule(second, 20, SECONDS);
+
+    nanos += SECONDS.toNanos(30);
+    wheel.run();
+    assertThat(executed).containsExactly(first, second).inOrder();
+  }
+
+  @Test
+  public void cancelledTaskIsRemoved() {
+    Runnable task = task("task");
+    wheel.schedule(task, 10, SECONDS);
+
+    assertThat(wheel.cancel(task)).isTrue();
+    assertThat(wheel.size()).isEqualTo(0);
+    assertThat(wheel.cancel(task)).isFalse();
+    advance(10, SECONDS);
+    assertThat(executed).isEmpty();
+  }
+
+  @Test
+  public void rescheduledTaskIsExecutedOnce() {
+    Runnable task = task("task");
+    wheel.schedule(task, 10, SECONDS);
+    wheel.schedule(task, 20, SECONDS);
+
+    advance(10, SECONDS);
+    assertThat(executed).isEmpty();
+    advance(10, SECONDS);
+    assertThat(executed).containsExactly(task);
+  }
+
+  @Test
+  public void clearRemovesAllTasks() {
+    for (int i = 0; i < 1000; i++) {
+      wheel.schedule(task("task" + i), i, SECONDS);
+    }
+    assertThat(wheel.clear()).isEqualTo(999);
+    advance(1000, SECONDS);
+    assertThat(executed).hasSize(1);
+  }
+
+  /** Moves the clock forward, running the wheel once. */
+  private void advance(long duration, TimeUnit unit) {
+    nanos += unit.toNanos(duration);
+    wheel.run();
+  }
+
+  /** Moves the clock forward, running the wheel at every tick as when scheduled at fixed rate. */
+  private void advanceByTicks(long duration, TimeUnit unit) {
+    long ticks = unit.toMillis(duration) / TICK_MS;
+    for (long i = 0; i < ticks; i++) {
+      advance(TICK_MS, MILLISECONDS);
+    }
+  }
+
+  private static Runnable task(String name) {
+    return new Runnable() {
+      @Override
+      public void run() {}
+
+      @Override
+      public String toString() {
+        return name;
+      }
+    };
+  }
+}
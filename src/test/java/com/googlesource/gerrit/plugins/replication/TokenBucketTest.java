@@ -0,0 +1,73 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TokenBucketTest {
+  private long nanos;
+  private TokenBucket bucket;
+
+  @Before
+  public void setUp() {
+    nanos = 0;
+    bucket = new TokenBucket(10, TimeUnit.SECONDS, 5, () -> nanos);
+  }
+
+  @Test
+  public void bucketStartsFull() {
+    assertThat(bucket.available()).isEqualTo(5);
+    for (int i = 0; i < 5; i++) {
+      assertThat(bucket.reserve(1)).isEqualTo(0);
+    }
+  }
+
+  @Test
+  public void missingTokensAreWaitedFor() {
+    bucket.reserve(5);
+    assertThat(bucket.reserve(1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(100));
+    assertThat(bucket.reserve(1)).isEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+    assertThat(bucket.available()).isEqualTo(-2);
+  }
+
+  @Test
+  public void bucketRefillsAtRateUpToCapacity() {
+    bucket.reserve(5);
+    nanos += TimeUnit.MILLISECONDS.toNanos(300);
+    assertThat(bucket.available()).isEqualTo(3);
+
+    nanos += TimeUnit.SECONDS.toNanos(10);
+    assertThat(bucket.available()).isEqualTo(5);
+  }
+
+  @Test
+  public void refundedTokensAreAvailableAgainUpToCapacity() {
+    bucket.reserve(2);
+    bucket.refund(1);
+    assertThat(bucket.available()).isEqualTo(4);
+
+    bucket.refund(3);
+    assertThat(bucket.available()).isEqualTo(5);
+  }
+
+  @Test
+  public void largeRequestIsServedOverTime() {
+    assertThat(bucket.reserve(25)).isEqualTo(TimeUnit.SECONDS.toNanos(2));
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TransportThrottleTest {
+  private static final int RATE = 1024 * 1024;
+
+  private TokenBucket bytes;
+  private ByteArrayOutputStream sent;
+
+  @Before
+  public void setUp() {
+    bytes = new TokenBucket(RATE, TimeUnit.SECONDS, RATE, () -> 0);
+    sent = new ByteArrayOutputStream();
+  }
+
+  @Test
+  public void writtenBytesTakeTokens() throws Exception {
+    try (OutputStream out = new TransportThrottle.ThrottledOutputStream(sent, bytes)) {
+      out.write(new byte[100]);
+      out.write(1);
+    }
+    assertThat(sent.size()).isEqualTo(101);
+    assertThat(bytes.available()).isEqualTo(RATE - 101);
+  }
+
+  @Test
+  public void largeWriteIsSentInChunks() throws Exception {
+    byte[] data = new byte[3 * TransportThrottle.CHUNK_SIZE + 1];
+    try (OutputStream out = new TransportThrottle.ThrottledOutputStream(sent, bytes)) {
+      out.write(data, 0, data.length);
+    }
+    assertThat(sent.toByteArray()).isEqualTo(data);
+    assertThat(bytes.available()).isEqualTo(RATE - data.length);
+  }
+}
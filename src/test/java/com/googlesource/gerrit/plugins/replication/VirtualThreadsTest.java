@@ -0,0 +1,57 @@
+// Copyright (C) 2026 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.replication;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Optional;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+
+public class VirtualThreadsTest {
+  private static final Thread.UncaughtExceptionHandler HANDLER = (t, e) -> {};
+
+  private final AtomicInteger created = new AtomicInteger();
+  private final ThreadFactory platform =
+      task -> {
+        Thread t = new Thread(task, "ReplicateTo-test-" + created.incrementAndGet());
+        t.setUncaughtExceptionHandler(HANDLER);
+        return t;
+      };
+
+  @Test
+  public void factoryIsAvailableFromJava21() {
+    Optional<ThreadFactory> factory = VirtualThreads.wrap(platform);
+    assertThat(factory.isPresent()).isEqualTo(Runtime.version().feature() >= 21);
+  }
+
+  @Test
+  public void threadsKeepTheNameAndHandlerOfThePlatformOnes() throws Exception {
+    Optional<ThreadFactory> factory = VirtualThreads.wrap(platform);
+    if (factory.isPresent()) {
+      AtomicBoolean ran = new AtomicBoolean();
+      Thread t = factory.get().newThread(() -> ran.set(true));
+      assertThat(t.getName()).isEqualTo("ReplicateTo-test-1");
+      assertThat(t.getUncaughtExceptionHandler()).isSameInstanceAs(HANDLER);
+      assertThat(t.isDaemon()).isTrue();
+
+      t.start();
+      t.join();
+      assertThat(ran.get()).isTrue();
+    }
+  }
+}